@@ -0,0 +1,323 @@
+package hm.orz.octworks.extholographlibrary;
+
+/**
+ * A series of points as read by line graphs, with the style it is drawn in. Subclasses decide
+ * how the points are stored and whether they can be changed: {@link Line} is freely editable,
+ * {@link StreamingLine} only appends and {@link MappedLine} is read-only.
+ */
+public abstract class AbstractLine {
+
+    public static final int DOWNSAMPLE_NONE = 0;
+    public static final int DOWNSAMPLE_LTTB = 1;
+    public static final int DOWNSAMPLE_MIN_MAX = 2;
+
+    public static final int POINTS_HIDDEN = 0;
+    public static final int POINTS_SHOWN = 1;
+    public static final int POINTS_AUTO = 2;
+
+    // kinds of line in a GraphState
+    static final int STATE_LINE = 0;
+    static final int STATE_STREAMING = 1;
+    static final int STATE_MAPPED = 2;
+
+    // modCount changes on every modification; appends and other edits are also counted
+    // separately so that renderers can tell a pure append from any other change.
+    private int modCount = 0;
+    private long appendCount = 0;
+    private int editCount = 0;
+    private int downsampleMode = DOWNSAMPLE_NONE;
+    private LineDownsampler downsampler;
+    private LinePyramid pyramid;
+
+    private int color;
+    private int pointsMode = POINTS_AUTO;
+
+    public abstract int getSize();
+
+    public abstract float getX(int index);
+
+    public abstract float getY(int index);
+
+    public abstract String getLabel(int index);
+
+    /**
+     * Returns the smallest x value of this line. Meaningless when the line is empty.
+     */
+    public abstract float getMinX();
+
+    public abstract float getMaxX();
+
+    public abstract float getMinY();
+
+    public abstract float getMaxY();
+
+    /**
+     * Returns whether the x values never decrease from one point to the next. Graphs only draw
+     * the visible part of sorted lines, and find it by binary search.
+     */
+    public abstract boolean isSortedByX();
+
+    public int getColor() {
+        return color;
+    }
+
+    public void setColor(int color) {
+        this.color = color;
+    }
+
+    /**
+     * Returns the smallest y among the points {@code from} to {@code to} (exclusive), or NaN if
+     * the range is empty.
+     */
+    public float getMinY(int from, int to) {
+        return from < to ? getY(indexOfMinY(from, to)) : Float.NaN;
+    }
+
+    /**
+     * Returns the largest y among the points {@code from} to {@code to} (exclusive), or NaN if
+     * the range is empty.
+     */
+    public float getMaxY(int from, int to) {
+        return from < to ? getY(indexOfMaxY(from, to)) : Float.NaN;
+    }
+
+    /**
+     * Returns the smallest y among the points with {@code minX <= x <= maxX}, or NaN if there
+     * are none. Sorted lines find the points by binary search.
+     */
+    public float getMinYInXRange(float minX, float maxX) {
+        if (isSortedByX()) {
+            return getMinY(lowerBoundX(minX), upperBoundX(maxX));
+        }
+        float min = Float.NaN;
+        for (int i = 0; i < getSize(); i++) {
+            float x = getX(i);
+            if (x >= minX && x <= maxX && !(getY(i) >= min)) {
+                min = getY(i);
+            }
+        }
+        return min;
+    }
+
+    /**
+     * Returns the largest y among the points with {@code minX <= x <= maxX}, or NaN if there
+     * are none. Sorted lines find the points by binary search.
+     */
+    public float getMaxYInXRange(float minX, float maxX) {
+        if (isSortedByX()) {
+            return getMaxY(lowerBoundX(minX), upperBoundX(maxX));
+        }
+        float max = Float.NaN;
+        for (int i = 0; i < getSize(); i++) {
+            float x = getX(i);
+            if (x >= minX && x <= maxX && !(getY(i) <= max)) {
+                max = getY(i);
+            }
+        }
+        return max;
+    }
+
+    public boolean isPyramidEnabled() {
+        return pyramid != null;
+    }
+
+    /**
+     * Keeps a min/max pyramid over the y values so that range extremes are found in O(log N)
+     * and min/max downsampling does not visit every point. Worth it for large lines only; it
+     * costs about a quarter of the memory of the points.
+     */
+    public void setPyramidEnabled(boolean enabled) {
+        if (enabled && pyramid == null) {
+            pyramid = new LinePyramid(this);
+        } else if (!enabled) {
+            pyramid = null;
+        }
+    }
+
+    public int getDownsampleMode() {
+        return downsampleMode;
+    }
+
+    /**
+     * Selects how this line is reduced before drawing when it has more points than the graph
+     * has pixels. {@link #DOWNSAMPLE_LTTB} keeps the overall shape with the fewest points,
+     * {@link #DOWNSAMPLE_MIN_MAX} keeps every spike. Defaults to {@link #DOWNSAMPLE_NONE}.
+     */
+    public void setDownsampleMode(int downsampleMode) {
+        this.downsampleMode = downsampleMode;
+    }
+
+    /**
+     * Returns whether markers may be drawn at the points, which in {@link #POINTS_AUTO} mode
+     * still depends on how densely the points end up on screen.
+     */
+    public boolean isShowingPoints() {
+        return pointsMode != POINTS_HIDDEN;
+    }
+
+    /**
+     * Forces the markers on or off, whatever the density of the points.
+     */
+    public void setShowingPoints(boolean showPoints) {
+        this.pointsMode = showPoints ? POINTS_SHOWN : POINTS_HIDDEN;
+    }
+
+    public int getPointsMode() {
+        return pointsMode;
+    }
+
+    /**
+     * Selects whether markers are always drawn ({@link #POINTS_SHOWN}), never drawn
+     * ({@link #POINTS_HIDDEN}) or, by default, thinned out to those that do not overlap once the
+     * points are denser on screen than the graph's point density threshold
+     * ({@link #POINTS_AUTO}).
+     */
+    public void setPointsMode(int pointsMode) {
+        this.pointsMode = pointsMode;
+    }
+
+    /**
+     * Returns whether the points never change, in which case background renderers share the
+     * line with the UI thread instead of copying it for every frame.
+     */
+    boolean isImmutable() {
+        return false;
+    }
+
+    /**
+     * Writes this line to {@code state}, to be recreated by {@link #readState(GraphState)}.
+     */
+    abstract void writeState(GraphState state);
+
+    static AbstractLine readState(GraphState state) {
+        int kind = state.getInt();
+        if (kind == STATE_STREAMING) {
+            return StreamingLine.readStreamingState(state);
+        } else if (kind == STATE_MAPPED) {
+            return MappedLine.readMappedState(state);
+        }
+        return Line.readLineState(state);
+    }
+
+    void writeStyle(GraphState state) {
+        state.putInt(color);
+        state.putInt(pointsMode);
+        state.putInt(downsampleMode);
+        state.putBoolean(isPyramidEnabled());
+    }
+
+    void readStyle(GraphState state) {
+        color = state.getInt();
+        pointsMode = state.getInt();
+        downsampleMode = state.getInt();
+        setPyramidEnabled(state.getBoolean());
+    }
+
+    /**
+     * Takes over the style and the append and edit counts of {@code source}, for a copy that
+     * stands in for it. The modification count only changes when the data may have, so that
+     * caches keyed on it survive captures of an unchanged line; {@code sameSource} tells whether
+     * the last copy was taken from the same line.
+     */
+    void copyStyleAndCounts(AbstractLine source, boolean sameSource) {
+        color = source.color;
+        pointsMode = source.pointsMode;
+        downsampleMode = source.downsampleMode;
+        if (!sameSource || appendCount != source.appendCount || editCount != source.editCount) {
+            appendCount = source.appendCount;
+            editCount = source.editCount;
+            modCount++;
+        }
+    }
+
+    /**
+     * Returns the index of the first point whose x is not below {@code x}, in a sorted line.
+     */
+    int lowerBoundX(float x) {
+        int low = 0, high = getSize();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (getX(middle) < x) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Returns the index of the first point whose x is above {@code x}, in a sorted line.
+     */
+    int upperBoundX(float x) {
+        int low = 0, high = getSize();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (getX(middle) <= x) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    int indexOfMinY(int from, int to) {
+        if (pyramid != null) {
+            return pyramid.indexOfExtreme(from, to, true);
+        }
+        int min = from;
+        for (int i = from + 1; i < to; i++) {
+            if (getY(i) < getY(min)) {
+                min = i;
+            }
+        }
+        return min;
+    }
+
+    int indexOfMaxY(int from, int to) {
+        if (pyramid != null) {
+            return pyramid.indexOfExtreme(from, to, false);
+        }
+        int max = from;
+        for (int i = from + 1; i < to; i++) {
+            if (getY(i) > getY(max)) {
+                max = i;
+            }
+        }
+        return max;
+    }
+
+    int getModCount() {
+        return modCount;
+    }
+
+    long getAppendCount() {
+        return appendCount;
+    }
+
+    int getEditCount() {
+        return editCount;
+    }
+
+    void onAppended() {
+        onAppended(1);
+    }
+
+    void onAppended(int count) {
+        appendCount += count;
+        modCount++;
+    }
+
+    void onEdited() {
+        editCount++;
+        modCount++;
+    }
+
+    LineDownsampler getDownsampler() {
+        if (downsampler == null) {
+            downsampler = new LineDownsampler(this);
+        }
+        return downsampler;
+    }
+}
@@ -2,17 +2,28 @@ package hm.orz.octworks.extholographlibrary;
 
 import android.content.Context;
 import android.graphics.Bitmap;
+import android.graphics.BitmapShader;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Matrix;
 import android.graphics.Paint;
-import android.graphics.Path;
-import android.graphics.Point;
-import android.graphics.Region;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffXfermode;
+import android.graphics.Shader;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Message;
+import android.os.Process;
+import android.support.v4.view.ViewCompat;
 import android.util.AttributeSet;
+import android.view.GestureDetector;
 import android.view.MotionEvent;
+import android.view.ScaleGestureDetector;
+import android.view.View;
+import android.widget.Scroller;
 
 import java.util.ArrayList;
+import java.util.List;
 
 public abstract class AbstractLineGraph extends Graph {
 
@@ -20,50 +31,187 @@ public abstract class AbstractLineGraph extends Graph {
 
     private static final int GRAPH_STROKE_WIDTH = 3;
     private static final int GRID_STROKE_WIDTH = 1;
-    private static final int POINT_DIAMETER = 6;
     private static final int POINT_CLICK_DIAMETER = 30;
-
-    private ArrayList<Line> lines = new ArrayList<Line>();
+    private static final int DOWNSAMPLE_POINTS_PER_PIXEL = 2;
+    private static final int MAX_BATCHED_SEGMENTS = 4096;
+    private static final int MSG_RENDER = 1;
+    private static final int DEFAULT_HATCH_COLOR = 0x1e000000;
+    static final int LABEL_CACHE_SIZE = 32;
+    private static final int SELECTED_COLOR = 0xff33b5e5;
+    // minimum distance between generated ticks, in dp
+    private static final int X_TICK_SPACING = 80;
+    private static final int Y_TICK_SPACING = 48;
+    private static final float DEFAULT_POINT_DENSITY_THRESHOLD = 1;
+
+    private ArrayList<AbstractLine> lines = new ArrayList<AbstractLine>();
 
     private Paint paint = new Paint();
+    // styled from the frame being rendered and used by the render pass only
     private Paint txtPaint = new Paint();
     private Paint numPaint = new Paint();
 
+    private boolean batchedLineDrawing = true;
+    private float pointDensityThreshold = DEFAULT_POINT_DENSITY_THRESHOLD;
+    // whether the markers of each line are thinned out in the current render pass
+    private boolean[] markersThinned = new boolean[0];
+    // screen position of the last marker drawn of each line, where thinning goes on from
+    private boolean[] markerDrawn = new boolean[0];
+    private float[] lastMarkerX = new float[0];
+    private float[] lastMarkerY = new float[0];
+    // per line, how many leading points were evicted since the last render pass
+    private int[] evictedCounts = new int[0];
+    private float[] lineVertices = new float[0];
+
+    // data layer: lines, markers and whatever subclasses draw around them
     private Bitmap fullImage;
+    private final Canvas fullCanvas = new Canvas();
+    // chrome layer: titles, axis values and grid, rebuilt only when layout or styling changes
+    private Bitmap chromeImage;
+    private final Canvas chromeCanvas = new Canvas();
+    private final Matrix layerMatrix = new Matrix();
+    private float topPadding, bottomPadding, leftPadding, rightPadding;
+    private final ViewportTransform transform = new ViewportTransform();
+    private PointHitIndex hitIndex = new PointHitIndex();
+    // the hit index built by the last render pass, whose entries scroll with the data layer
+    private PointHitIndex renderedHitIndex = hitIndex;
+    private int drawingLineIndex;
 
     private boolean shouldUpdate = false;
+    private boolean chromeDirty = true;
+
+    private boolean incrementalRendering = false;
+    private Bitmap scrollImage;
+    private final Canvas scrollCanvas = new Canvas();
+    private final Paint clearPaint = new Paint();
+    // state of the data layer as last rendered, to tell whether it can be scrolled
+    private boolean dataLayerValid = false;
+    private float renderedScaleX, renderedOffsetX, renderedScaleY, renderedOffsetY;
+    private float renderedLeft, renderedTop, renderedRight, renderedBottom;
+    private AbstractLine[] renderedLines = new AbstractLine[0];
+    private long[] renderedAppendCounts = new long[0];
+    private int[] renderedSizes = new int[0];
+    private int[] renderedEditCounts = new int[0];
+    private boolean[] renderedMarkersThinned = new boolean[0];
+    private int renderedLineCount = 0;
+
+    // what the current render pass draws: the live lines, or copies of them in the background
+    private ArrayList<AbstractLine> renderLines = lines;
+    private ArrayList<AbstractLine> renderSources = lines;
+    private int renderSelectedLineIndex = UNSELECTED;
+    private int renderSelectedPointIndex = UNSELECTED;
+    // configuration of frames rendered on the UI thread
+    private final RenderSnapshot syncFrame = new RenderSnapshot();
+    // the configuration the current render pass reads instead of the fields set by the UI thread
+    private RenderSnapshot renderFrame = syncFrame;
+
+    private boolean asyncRendering = false;
+    private boolean attached = false;
+    private boolean capturePosted = false;
+    private HandlerThread renderThread;
+    private Handler renderHandler;
+    private final Object frameLock = new Object();
+    // guarded by frameLock: the next snapshot to render and the last completed frame
+    private RenderSnapshot pendingSnapshot = new RenderSnapshot();
+    private boolean snapshotPending = false;
+    private Bitmap frontImage;
+    private PointHitIndex frontHitIndex = new PointHitIndex();
+    // owned by the render thread while it runs
+    private RenderSnapshot renderingSnapshot = new RenderSnapshot();
+    private Bitmap backImage;
+    private final Canvas backCanvas = new Canvas();
+    // guarded by frameLock: plot area of the last rendered frame, for gestures on the UI thread
+    private float framePlotLeft, framePlotRight;
+    private int touchedLineIndex, touchedPointIndex;
+    // set when a host such as SurfaceLineGraph drives rendering instead of this view
+    private Runnable renderRequest;
+    // the view fling steps are posted to: the host, since this view is never attached then
+    private View animationHost = this;
+
+    // visible x range; the whole data range is shown while it is not set
+    private boolean visibleXRangeSet = false;
+    private float visibleMinX, visibleMaxX;
+    private boolean viewportGestures = false;
+    private boolean panning = false;
+    private ScaleGestureDetector scaleDetector;
+    private GestureDetector gestureDetector;
+    private Scroller flingScroller;
+    private int lastFlingX;
 
     private int selectedLineIndex = UNSELECTED;
     private int selectedPointIndex = UNSELECTED;
 
+    private int textColor = 0xdd000000;
+    private float textSize;
+
     private String xAxisTitle = null;
     private String yAxisTitle = null;
 
     private ArrayList<Integer> xGridList = new ArrayList<Integer>();
     private ArrayList<Integer> yGridList = new ArrayList<Integer>();
+    private boolean autoXGrid = false;
+    private boolean autoYGrid = false;
+    // ticks of the current layout, rebuilt with the chrome layer
+    private final AxisTicks xTicks = new AxisTicks();
+    private final AxisTicks yTicks = new AxisTicks();
 
     private boolean showYAxisValues = true;
     private boolean showXAxisValues = true;
 
     private int gridColor = 0xffffffff;
 
+    private LabelFormatter xLabelFormatter = LabelCache.DEFAULT_FORMATTER;
+    private LabelFormatter yLabelFormatter = LabelCache.DEFAULT_FORMATTER;
+    private final LabelCache xLabels = new LabelCache(numPaint, LABEL_CACHE_SIZE);
+    private final LabelCache yLabels = new LabelCache(numPaint, LABEL_CACHE_SIZE);
+
+    private int hatchColor = DEFAULT_HATCH_COLOR;
+    private int lineToFill = -1;
+    // owned by the render pass, like the layers
+    private final Paint hatchPaint = new Paint();
+    private boolean hatchShaderValid = false;
+    private int hatchShaderColor;
+
     private OnPointClickedListener listener;
 
     public interface OnPointClickedListener {
         abstract void onClick(int lineIndex, int pointIndex);
     }
 
+    /**
+     * Turns axis values into labels, e.g. to add units or show timestamps as dates. Labels are
+     * cached, so format must return the same text for the same value.
+     */
+    public interface LabelFormatter {
+        abstract String format(float value);
+    }
+
     public AbstractLineGraph(Context context, AttributeSet attrs) {
         super(context, attrs);
-        txtPaint.setColor(0xdd000000);
-        txtPaint.setTextSize(convertToPx(20, SP));
+        textSize = convertToPx(20, SP);
         numPaint.setColor(0xdd000000);
         numPaint.setTextSize(convertToPx(16, SP));
+        clearPaint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.CLEAR));
     }
 
     public void update() {
         shouldUpdate = true;
-        postInvalidate();
+        requestFrame();
+    }
+
+    /**
+     * Redraws the chrome layer only, after a change of titles, axis values or grid.
+     */
+    private void updateChrome() {
+        chromeDirty = true;
+        requestFrame();
+    }
+
+    private void requestFrame() {
+        if (asyncRendering) {
+            requestSnapshot();
+        } else {
+            postInvalidate();
+        }
     }
 
     public abstract float getMaxY();
@@ -76,38 +224,380 @@ public abstract class AbstractLineGraph extends Graph {
 
     public void showXAxisValues(boolean show) {
         showXAxisValues = show;
+        updateChrome();
     }
 
     public void showYAxisValues(boolean show) {
         showYAxisValues = show;
+        updateChrome();
     }
 
     public void setTextColor(int color) {
-        txtPaint.setColor(color);
+        textColor = color;
+        updateChrome();
     }
 
     public void setTextSize(float s) {
-        txtPaint.setTextSize(s);
+        textSize = s;
+        updateChrome();
     }
 
     public void setYAxisTitle(String title) {
         yAxisTitle = title;
+        updateChrome();
     }
 
     public void setXAxisTitle(String title) {
         xAxisTitle = title;
+        updateChrome();
     }
 
     public void setXGrid(ArrayList<Integer> gridList) {
         this.xGridList = gridList;
+        updateChrome();
     }
 
     public void setYGrid(ArrayList<Integer> gridList) {
         this.yGridList = gridList;
+        updateChrome();
+    }
+
+    public boolean isAutoXGrid() {
+        return autoXGrid;
+    }
+
+    /**
+     * When enabled, x ticks are generated as multiples of 1, 2 or 5 times a power of ten that
+     * suit the bounds and the width, instead of taken from {@link #setXGrid(ArrayList)}.
+     */
+    public void setAutoXGrid(boolean auto) {
+        autoXGrid = auto;
+        updateChrome();
+    }
+
+    public boolean isAutoYGrid() {
+        return autoYGrid;
+    }
+
+    /**
+     * When enabled, y ticks and grid lines are generated as multiples of 1, 2 or 5 times a power
+     * of ten that suit the bounds and the height, instead of taken from
+     * {@link #setYGrid(ArrayList)}.
+     */
+    public void setAutoYGrid(boolean auto) {
+        autoYGrid = auto;
+        updateChrome();
     }
 
     public void setGridColor(int color) {
         gridColor = color;
+        updateChrome();
+    }
+
+    public int getHatchColor() {
+        return hatchColor;
+    }
+
+    /**
+     * Sets the color of the hatch lines in filled areas.
+     */
+    public void setHatchColor(int color) {
+        hatchColor = color;
+        update();
+    }
+
+    public int getLineToFill() {
+        return lineToFill;
+    }
+
+    /**
+     * Hatches the area under the line with the given index, or its band in a stacked graph. -1,
+     * the default, fills nothing.
+     */
+    public void setLineToFill(int indexOfLine) {
+        this.lineToFill = indexOfLine;
+        update();
+    }
+
+    /**
+     * Returns the index of the line to fill in the frame being rendered.
+     */
+    protected int getRenderLineToFill() {
+        return renderFrame.lineToFill;
+    }
+
+    /**
+     * Returns a paint that fills with the hatch pattern, so that an area of any size is hatched
+     * with one draw call. The pattern tile is shared by all graphs on the same display.
+     */
+    protected Paint getHatchPaint() {
+        int color = renderFrame.hatchColor;
+        if (!hatchShaderValid || hatchShaderColor != color) {
+            Bitmap tile = HatchPattern.getTile(getContext().getResources().getDisplayMetrics().density, color);
+            hatchPaint.reset();
+            hatchPaint.setStyle(Paint.Style.FILL);
+            hatchPaint.setShader(new BitmapShader(tile, Shader.TileMode.REPEAT, Shader.TileMode.REPEAT));
+            hatchShaderValid = true;
+            hatchShaderColor = color;
+        }
+        return hatchPaint;
+    }
+
+    public LabelFormatter getXLabelFormatter() {
+        return xLabelFormatter;
+    }
+
+    /**
+     * Sets the formatter of the x axis values, or restores the default one for {@code null}.
+     */
+    public void setXLabelFormatter(LabelFormatter formatter) {
+        xLabelFormatter = formatter != null ? formatter : LabelCache.DEFAULT_FORMATTER;
+        updateChrome();
+    }
+
+    public LabelFormatter getYLabelFormatter() {
+        return yLabelFormatter;
+    }
+
+    /**
+     * Sets the formatter of the y axis values, or restores the default one for {@code null}.
+     */
+    public void setYLabelFormatter(LabelFormatter formatter) {
+        yLabelFormatter = formatter != null ? formatter : LabelCache.DEFAULT_FORMATTER;
+        updateChrome();
+    }
+
+    public boolean isBatchedLineDrawing() {
+        return batchedLineDrawing;
+    }
+
+    /**
+     * When enabled (the default) each line is projected into a vertex buffer and submitted with
+     * a few {@link Canvas#drawLines(float[], int, int, Paint)} calls instead of one
+     * {@link Canvas#drawLine(float, float, float, float, Paint)} call per segment.
+     */
+    public void setBatchedLineDrawing(boolean batched) {
+        batchedLineDrawing = batched;
+        update();
+    }
+
+    public float getPointDensityThreshold() {
+        return pointDensityThreshold;
+    }
+
+    /**
+     * Sets how densely the points of a line in {@link AbstractLine#POINTS_AUTO} mode may lie on screen
+     * before its markers are thinned out to those that do not overlap, in points per marker
+     * diameter along the x axis. Defaults to 1.
+     */
+    public void setPointDensityThreshold(float threshold) {
+        pointDensityThreshold = threshold;
+        update();
+    }
+
+    public boolean isIncrementalRendering() {
+        return incrementalRendering;
+    }
+
+    /**
+     * When enabled and the only change since the last frame is points appended to lines whose
+     * x range slid forward, the rendered data layer is scrolled and only the new segments are
+     * drawn. Any other change, including a change of the y bounds, falls back to a full render.
+     */
+    public void setIncrementalRendering(boolean incremental) {
+        incrementalRendering = incremental;
+        update();
+    }
+
+    public boolean isAsyncRendering() {
+        return asyncRendering;
+    }
+
+    /**
+     * When enabled, frames are rendered on a background thread from a copy of the lines taken
+     * on the UI thread, and {@link #onDraw(Canvas)} only draws the last completed frame. Requests
+     * made while a frame is being rendered are coalesced into one.
+     */
+    public void setAsyncRendering(boolean async) {
+        if (async == asyncRendering) {
+            return;
+        }
+        if (async) {
+            asyncRendering = true;
+            if (attached) {
+                startRenderThread();
+            }
+        } else {
+            // the UI thread takes over the layers once the render thread has finished
+            stopRenderThread();
+            asyncRendering = false;
+            releaseFrameBitmaps();
+        }
+        chromeDirty = true;
+        update();
+    }
+
+    public boolean isVisibleXRangeSet() {
+        return visibleXRangeSet;
+    }
+
+    public float getVisibleMinX() {
+        return visibleXRangeSet ? visibleMinX : getMinX();
+    }
+
+    public float getVisibleMaxX() {
+        return visibleXRangeSet ? visibleMaxX : getMaxX();
+    }
+
+    /**
+     * Shows only the given x range. Only the visible part of lines sorted by x is projected and
+     * drawn, so the cost of a frame depends on the range rather than on the length of the lines.
+     */
+    public void setVisibleXRange(float minX, float maxX) {
+        if (!(maxX > minX)) {
+            throw new IllegalArgumentException("Invalid visible range " + minX + " to " + maxX);
+        }
+        visibleMinX = minX;
+        visibleMaxX = maxX;
+        visibleXRangeSet = true;
+        update();
+    }
+
+    /**
+     * Shows the whole x range of the graph again.
+     */
+    public void resetVisibleXRange() {
+        if (flingScroller != null) {
+            flingScroller.forceFinished(true);
+        }
+        visibleXRangeSet = false;
+        update();
+    }
+
+    public boolean isViewportGesturesEnabled() {
+        return viewportGestures;
+    }
+
+    /**
+     * Enables pinch-zoom, drag-pan and fling of the visible x range, within the x range of the
+     * graph.
+     */
+    public void setViewportGesturesEnabled(boolean enabled) {
+        viewportGestures = enabled;
+        if (enabled && scaleDetector == null) {
+            scaleDetector = new ScaleGestureDetector(getContext(), new ScaleGestureDetector.SimpleOnScaleGestureListener() {
+                @Override
+                public boolean onScale(ScaleGestureDetector detector) {
+                    zoomVisibleXRange(detector.getScaleFactor(), detector.getFocusX());
+                    return true;
+                }
+            });
+            gestureDetector = new GestureDetector(getContext(), new GestureDetector.SimpleOnGestureListener() {
+                @Override
+                public boolean onDown(MotionEvent e) {
+                    flingScroller.forceFinished(true);
+                    return true;
+                }
+
+                @Override
+                public boolean onScroll(MotionEvent e1, MotionEvent e2, float distanceX, float distanceY) {
+                    panning = true;
+                    panVisibleXRange(distanceX);
+                    return true;
+                }
+
+                @Override
+                public boolean onFling(MotionEvent e1, MotionEvent e2, float velocityX, float velocityY) {
+                    lastFlingX = 0;
+                    flingScroller.fling(0, 0, (int) -velocityX, 0,
+                            Integer.MIN_VALUE, Integer.MAX_VALUE, 0, 0);
+                    animationHost.removeCallbacks(flingStep);
+                    ViewCompat.postOnAnimation(animationHost, flingStep);
+                    return true;
+                }
+            });
+            flingScroller = new Scroller(getContext());
+        }
+    }
+
+    /**
+     * Pans by one step of the fling in progress and schedules the next one for the next
+     * animation frame. Posted rather than driven by computeScroll(), which is never called on a
+     * graph hosted by a view that renders it.
+     */
+    private final Runnable flingStep = new Runnable() {
+        @Override
+        public void run() {
+            if (flingScroller.computeScrollOffset()) {
+                int x = flingScroller.getCurrX();
+                panVisibleXRange(x - lastFlingX);
+                lastFlingX = x;
+                ViewCompat.postOnAnimation(animationHost, this);
+            }
+        }
+    };
+
+    private void panVisibleXRange(float distancePixels) {
+        float minX = getVisibleMinX(), maxX = getVisibleMaxX();
+        float span = maxX - minX;
+        if (!(span > 0)) {
+            return;
+        }
+        float plotWidth = getFramePlotRight() - getFramePlotLeft();
+        if (!(plotWidth > 0)) {
+            return;
+        }
+        float distance = distancePixels * span / plotWidth;
+        float dataMinX = getMinX(), dataMaxX = getMaxX();
+        float newMinX = Math.max(dataMinX, Math.min(minX + distance, dataMaxX - span));
+        if (newMinX != minX) {
+            setVisibleXRange(newMinX, newMinX + span);
+        }
+    }
+
+    private void zoomVisibleXRange(float factor, float focusPixels) {
+        float minX = getVisibleMinX(), maxX = getVisibleMaxX();
+        float dataMinX = getMinX(), dataMaxX = getMaxX();
+        if (!(maxX > minX) || !(factor > 0) || !(dataMaxX > dataMinX)) {
+            return;
+        }
+        float plotLeft = getFramePlotLeft();
+        float plotWidth = getFramePlotRight() - plotLeft;
+        if (!(plotWidth > 0)) {
+            return;
+        }
+        float focus = minX + (focusPixels - plotLeft) / plotWidth * (maxX - minX);
+        focus = Math.max(minX, Math.min(focus, maxX));
+
+        float newMinX = focus - (focus - minX) / factor;
+        float newMaxX = focus + (maxX - focus) / factor;
+        if (newMaxX - newMinX >= dataMaxX - dataMinX) {
+            resetVisibleXRange();
+            return;
+        }
+        // keep the range inside the data by shifting it back
+        if (newMinX < dataMinX) {
+            newMaxX += dataMinX - newMinX;
+            newMinX = dataMinX;
+        } else if (newMaxX > dataMaxX) {
+            newMinX -= newMaxX - dataMaxX;
+            newMaxX = dataMaxX;
+        }
+        if (newMaxX > newMinX) {
+            setVisibleXRange(newMinX, newMaxX);
+        }
+    }
+
+    private float getFramePlotLeft() {
+        synchronized (frameLock) {
+            return framePlotLeft;
+        }
+    }
+
+    private float getFramePlotRight() {
+        synchronized (frameLock) {
+            return framePlotRight;
+        }
     }
 
     public void removeAllLines() {
@@ -117,20 +607,24 @@ public abstract class AbstractLineGraph extends Graph {
         update();
     }
 
-    public void addLine(Line line) {
+    public void addLine(AbstractLine line) {
         lines.add(line);
         update();
     }
 
-    public ArrayList<Line> getLines() {
+    public ArrayList<AbstractLine> getLines() {
         return lines;
     }
 
-    public void setLines(ArrayList<Line> lines) {
-        this.lines = lines;
+    /**
+     * Replaces the lines of this graph with those of {@code lines}, which is copied.
+     */
+    public void setLines(List<? extends AbstractLine> lines) {
+        this.lines = new ArrayList<AbstractLine>(lines);
+        update();
     }
 
-    public Line getLine(int index) {
+    public AbstractLine getLine(int index) {
         return lines.get(index);
     }
 
@@ -142,34 +636,84 @@ public abstract class AbstractLineGraph extends Graph {
         this.listener = listener;
     }
 
+    @Override
+    void writeState(GraphState state) {
+        super.writeState(state);
+        state.putString(xAxisTitle);
+        state.putString(yAxisTitle);
+        state.putInts(xGridList);
+        state.putInts(yGridList);
+        state.putBoolean(autoXGrid);
+        state.putBoolean(autoYGrid);
+        state.putBoolean(showXAxisValues);
+        state.putBoolean(showYAxisValues);
+        state.putInt(gridColor);
+        state.putInt(hatchColor);
+        state.putInt(lineToFill);
+        state.putInt(textColor);
+        state.putFloat(textSize);
+        state.putFloat(pointDensityThreshold);
+        state.putBoolean(visibleXRangeSet);
+        state.putFloat(visibleMinX);
+        state.putFloat(visibleMaxX);
+    }
+
+    @Override
+    void readState(GraphState state) {
+        super.readState(state);
+        xAxisTitle = state.getString();
+        yAxisTitle = state.getString();
+        xGridList = state.getInts();
+        yGridList = state.getInts();
+        autoXGrid = state.getBoolean();
+        autoYGrid = state.getBoolean();
+        showXAxisValues = state.getBoolean();
+        showYAxisValues = state.getBoolean();
+        gridColor = state.getInt();
+        hatchColor = state.getInt();
+        lineToFill = state.getInt();
+        textColor = state.getInt();
+        textSize = state.getFloat();
+        pointDensityThreshold = state.getFloat();
+        visibleXRangeSet = state.getBoolean();
+        visibleMinX = state.getFloat();
+        visibleMaxX = state.getFloat();
+        chromeDirty = true;
+    }
+
     @Override
     public boolean onTouchEvent(MotionEvent event) {
-        Point point = new Point();
-        point.x = (int) event.getX();
-        point.y = (int) event.getY();
-
-        int lineCount = 0;
-        int pointCount;
-
-        for (Line line : lines) {
-            pointCount = 0;
-            for (LinePoint p : line.getPoints()) {
-                if (p.isOnPoint(point.x, point.y)) {
-                    if (event.getAction() == MotionEvent.ACTION_DOWN) {
-                        selectedLineIndex = lineCount;
-                        selectedPointIndex = pointCount;
-                    } else if (event.getAction() == MotionEvent.ACTION_UP) {
-                        if (listener != null) {
-                            listener.onClick(lineCount, pointCount);
-                        }
-
-                        selectedLineIndex = UNSELECTED;
-                        selectedPointIndex = UNSELECTED;
-                    }
+        if (viewportGestures) {
+            if (event.getAction() == MotionEvent.ACTION_DOWN) {
+                panning = false;
+            }
+            scaleDetector.onTouchEvent(event);
+            gestureDetector.onTouchEvent(event);
+            if (panning || scaleDetector.isInProgress()) {
+                // a drag or pinch is not a click on a point
+                if (selectedLineIndex != UNSELECTED) {
+                    selectedLineIndex = UNSELECTED;
+                    selectedPointIndex = UNSELECTED;
+                    update();
                 }
-                pointCount++;
+                return true;
+            }
+        }
+
+        if (findTouchedPoint((int) event.getX(), (int) event.getY())) {
+            int lineIndex = touchedLineIndex;
+            int pointIndex = touchedPointIndex;
+            if (event.getAction() == MotionEvent.ACTION_DOWN) {
+                selectedLineIndex = lineIndex;
+                selectedPointIndex = pointIndex;
+            } else if (event.getAction() == MotionEvent.ACTION_UP) {
+                if (listener != null) {
+                    listener.onClick(lineIndex, pointIndex);
+                }
+
+                selectedLineIndex = UNSELECTED;
+                selectedPointIndex = UNSELECTED;
             }
-            lineCount++;
         }
 
         if (event.getAction() == MotionEvent.ACTION_DOWN || event.getAction() == MotionEvent.ACTION_UP) {
@@ -179,64 +723,622 @@ public abstract class AbstractLineGraph extends Graph {
         return true;
     }
 
-    public void onDraw(Canvas ca) {
-        if (fullImage == null || shouldUpdate) {
-            fullImage = Bitmap.createBitmap(getWidth(), getHeight(), Bitmap.Config.ARGB_8888);
-            Canvas canvas = new Canvas(fullImage);
-
-            float topPadding = 0, bottomPadding = 0, leftPadding = 0, rightPadding = 0;
-            if (showXAxisValues || showYAxisValues) {
-                topPadding = numPaint.measureText(getMaxY() + "") / 2;
-                rightPadding = numPaint.measureText(getMaxX() + "") / 2;
-                leftPadding = numPaint.getTextSize() * 2f;
-                bottomPadding = numPaint.getTextSize() * 2f;
+    private boolean findTouchedPoint(float x, float y) {
+        if (asyncRendering) {
+            synchronized (frameLock) {
+                return findTouchedPoint(frontHitIndex, x, y);
             }
+        }
+        return findTouchedPoint(hitIndex, x, y);
+    }
+
+    private boolean findTouchedPoint(PointHitIndex index, float x, float y) {
+        int hit = index.query(x, y, convertToPx(POINT_CLICK_DIAMETER, DP));
+        if (hit == PointHitIndex.NO_HIT) {
+            return false;
+        }
+        touchedLineIndex = index.getLineIndex(hit);
+        touchedPointIndex = index.getPointIndex(hit);
+        return true;
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        if (asyncRendering) {
+            // the render thread reallocates its bitmaps for the size of the next snapshot
+            update();
+            return;
+        }
+        releaseOffscreenBitmaps();
+        allocateOffscreenBitmaps(w, h);
+        shouldUpdate = true;
+        chromeDirty = true;
+    }
 
-            onPreDrawGraph(canvas, topPadding, bottomPadding, leftPadding, rightPadding);
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        attached = true;
+        if (asyncRendering) {
+            startRenderThread();
+            chromeDirty = true;
+            update();
+        }
+    }
 
-            if (showXAxisValues) {
-                drawXAxisValues(canvas, topPadding, bottomPadding, leftPadding, rightPadding);
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        attached = false;
+        stopRenderThread();
+        releaseOffscreenBitmaps();
+        releaseFrameBitmaps();
+    }
+
+    public void onDraw(Canvas ca) {
+        if (asyncRendering) {
+            synchronized (frameLock) {
+                if (frontImage != null) {
+                    ca.drawBitmap(frontImage, 0, 0, null);
+                }
             }
+            return;
+        }
 
-            if (showYAxisValues) {
-                drawYAxisValues(canvas, topPadding, bottomPadding, leftPadding, rightPadding);
+        if (fullImage == null) {
+            // released on detach, or drawn before the first size change
+            allocateOffscreenBitmaps(getWidth(), getHeight());
+            if (fullImage == null) {
+                return;
             }
+            shouldUpdate = true;
+            chromeDirty = true;
+        }
+
+        if (shouldUpdate || chromeDirty) {
+            renderLines = lines;
+            renderSources = lines;
+            renderSelectedLineIndex = selectedLineIndex;
+            renderSelectedPointIndex = selectedPointIndex;
+            captureConfig(syncFrame);
+            renderFrame = syncFrame;
+            renderLayers(chromeDirty, shouldUpdate, getVisibleMinX(), getVisibleMaxX(), getMinY(), getMaxY());
+            chromeDirty = false;
+            shouldUpdate = false;
+        }
+
+        drawLayers(ca);
+    }
+
+    /**
+     * Draws the chrome and data layers as last rendered.
+     */
+    void drawLayers(Canvas canvas) {
+        if (fullImage == null) {
+            return;
+        }
+        canvas.drawBitmap(chromeImage, 0, 0, null);
+        canvas.drawBitmap(fullImage, layerMatrix, null);
+    }
 
-            drawHorizontalGrid(canvas, topPadding, bottomPadding, leftPadding, rightPadding);
+    /**
+     * Brings the chrome and data layers up to date for the given bounds.
+     */
+    private void renderLayers(boolean chrome, boolean data, float minX, float maxX, float minY, float maxY) {
+        if (updateLayout(minX, maxX, minY, maxY)) {
+            chrome = true;
+            data = true;
+        }
+
+        if (chrome) {
+            chromeImage.eraseColor(Color.TRANSPARENT);
+            drawChrome(chromeCanvas);
+        }
 
-            for (Line line : lines) {
-                drawLine(canvas, line, topPadding, bottomPadding, leftPadding, rightPadding);
+        if (data) {
+            boolean incremental = renderFrame.incrementalRendering;
+            if (incremental && scrollImage == null) {
+                allocateScrollBitmap(fullImage.getWidth(), fullImage.getHeight());
             }
+            if (!incremental || !drawAppendedData()) {
+                fullImage.eraseColor(Color.TRANSPARENT);
+                drawData(fullCanvas);
+            }
+            recordRenderedData();
+        }
 
-            // draw select marker
-            {
-                if (selectedLineIndex != UNSELECTED) {
-                    Line selectedLine = lines.get(selectedLineIndex);
-                    if (selectedLine != null) {
-                        LinePoint selectedPoint = selectedLine.getPoint(selectedPointIndex);
-                        drawPointSelectedMark(ca, selectedPoint);
-                    }
+        synchronized (frameLock) {
+            framePlotLeft = transform.getLeft();
+            framePlotRight = transform.getRight();
+        }
+    }
+
+    /**
+     * Recomputes the padding and the viewport transform. Both layers must be redrawn when either
+     * changed, since the chrome and the data are laid out with them.
+     *
+     * @return true if the layout changed
+     */
+    private boolean updateLayout(float minX, float maxX, float minY, float maxY) {
+        float top = 0, bottom = 0, left = 0, right = 0;
+        RenderSnapshot frame = renderFrame;
+        if (frame.showXAxisValues || frame.showYAxisValues) {
+            top = yLabels.getWidth(yLabels.lookup(maxY, frame.yLabelFormatter)) / 2;
+            right = xLabels.getWidth(xLabels.lookup(maxX, frame.xLabelFormatter)) / 2;
+            left = numPaint.getTextSize() * 2f;
+            bottom = numPaint.getTextSize() * 2f;
+        }
+
+        if (top != topPadding || bottom != bottomPadding || left != leftPadding || right != rightPadding
+                || minX != transform.getMinX() || maxX != transform.getMaxX()
+                || minY != transform.getMinY() || maxY != transform.getMaxY()) {
+            topPadding = top;
+            bottomPadding = bottom;
+            leftPadding = left;
+            rightPadding = right;
+            transform.set(fullImage.getWidth(), fullImage.getHeight(),
+                    topPadding, bottomPadding, leftPadding, rightPadding,
+                    minX, maxX, minY, maxY);
+            return true;
+        }
+        return false;
+    }
+
+    private void drawChrome(Canvas canvas) {
+        // the chrome is redrawn whenever the bounds or the size change, and only then
+        RenderSnapshot frame = renderFrame;
+        if (frame.autoXGrid) {
+            xTicks.generate(transform.getMinX(), transform.getMaxX(),
+                    transform.getRight() - transform.getLeft(), convertToPx(X_TICK_SPACING, DP));
+        } else {
+            xTicks.set(frame.xGrid);
+        }
+        if (frame.autoYGrid) {
+            yTicks.generate(transform.getMinY(), transform.getMaxY(),
+                    transform.getBottom() - transform.getTop(), convertToPx(Y_TICK_SPACING, DP));
+        } else {
+            yTicks.set(frame.yGrid);
+        }
+        txtPaint.setColor(frame.textColor);
+        txtPaint.setTextSize(frame.textSize);
+
+        int width = canvas.getWidth();
+        int height = canvas.getHeight();
+        layerMatrix.reset();
+        if (frame.xAxisTitle != null) {
+            drawXAxisTitle(canvas, frame.xAxisTitle);
+            layerMatrix.preScale(1, (height - txtPaint.getTextSize()) / height);
+        }
+
+        if (frame.yAxisTitle != null) {
+            drawYAxisTitle(canvas, frame.yAxisTitle);
+            layerMatrix.postTranslate(txtPaint.getTextSize(), 0);
+            layerMatrix.preScale((width - txtPaint.getTextSize()) / width, 1);
+        }
+
+        // axis values and grid share the data layer's coordinate system
+        canvas.save();
+        canvas.concat(layerMatrix);
+
+        if (frame.showXAxisValues) {
+            drawXAxisValues(canvas, topPadding, bottomPadding, leftPadding, rightPadding);
+        }
+
+        if (frame.showYAxisValues) {
+            drawYAxisValues(canvas, topPadding, bottomPadding, leftPadding, rightPadding);
+        }
+
+        drawHorizontalGrid(canvas, topPadding, bottomPadding, leftPadding, rightPadding);
+
+        canvas.restore();
+    }
+
+    private void drawData(Canvas canvas) {
+        onPreDrawGraph(canvas, topPadding, bottomPadding, leftPadding, rightPadding);
+
+        // segments crossing the edges of a visible range must not spill over the axes
+        boolean clip = renderFrame.visibleXRangeSet;
+        if (clip) {
+            canvas.save();
+            canvas.clipRect(transform.getLeft(), 0, transform.getRight(), canvas.getHeight());
+        }
+
+        ensureLineStateCapacity(renderLines.size());
+        hitIndex.clear();
+        for (drawingLineIndex = 0; drawingLineIndex < renderLines.size(); drawingLineIndex++) {
+            drawLine(canvas, renderLines.get(drawingLineIndex), topPadding, bottomPadding, leftPadding, rightPadding);
+        }
+        hitIndex.build(canvas.getWidth(), canvas.getHeight(), convertToPx(POINT_CLICK_DIAMETER, DP));
+        renderedHitIndex = hitIndex;
+
+        if (clip) {
+            canvas.restore();
+        }
+
+        // draw select marker
+        {
+            if (renderSelectedLineIndex != UNSELECTED && renderSelectedLineIndex < renderLines.size()) {
+                AbstractLine selectedLine = renderLines.get(renderSelectedLineIndex);
+                if (selectedLine != null && renderSelectedPointIndex < selectedLine.getSize()) {
+                    drawPointSelectedMark(canvas, selectedLine, renderSelectedPointIndex, topPadding, bottomPadding, leftPadding, rightPadding);
                 }
             }
+        }
 
-            onPostDrawGraph(canvas, topPadding, bottomPadding, leftPadding, rightPadding);
+        onPostDrawGraph(canvas, topPadding, bottomPadding, leftPadding, rightPadding);
+    }
 
-            shouldUpdate = false;
+    /**
+     * Scrolls the data layer by the change of the x offset and draws only the segments appended
+     * since the last frame.
+     *
+     * @return false if anything else changed and a full render is needed
+     */
+    private boolean drawAppendedData() {
+        // a visible range can be panned back over parts of the lines that were never drawn
+        if (!dataLayerValid || scrollImage == null || renderSelectedLineIndex != UNSELECTED || renderFrame.visibleXRangeSet
+                || !supportsIncrementalRendering()
+                || transform.getScaleX() != renderedScaleX
+                || transform.getScaleY() != renderedScaleY || transform.getOffsetY() != renderedOffsetY
+                || transform.getLeft() != renderedLeft || transform.getTop() != renderedTop
+                || transform.getRight() != renderedRight || transform.getBottom() != renderedBottom
+                || renderLines.size() != renderedLineCount) {
+            return false;
+        }
+        ensureLineStateCapacity(renderedLineCount);
+        for (int i = 0; i < renderedLineCount; i++) {
+            AbstractLine line = renderLines.get(i);
+            if (renderSources.get(i) != renderedLines[i] || line.getEditCount() != renderedEditCounts[i]
+                    || line.getAppendCount() < renderedAppendCounts[i]
+                    || line.getDownsampleMode() != AbstractLine.DOWNSAMPLE_NONE) {
+                return false;
+            }
+            // markers already drawn cannot be thinned out, nor the missing ones added
+            markersThinned[i] = shouldThinMarkers(line, null, firstDrawnIndex(line), endOfDrawnIndices(line));
+            if (markersThinned[i] != renderedMarkersThinned[i]) {
+                return false;
+            }
+        }
+
+        // Shift by whole pixels only and draw the new segments with the offset actually
+        // applied, so that rounding errors do not accumulate from frame to frame.
+        int shift = Math.round(transform.getOffsetX() - renderedOffsetX);
+        if (Math.abs(shift) >= fullImage.getWidth()) {
+            return false;
+        }
+        transform.setOffsetX(renderedOffsetX + shift);
+
+        if (shift != 0) {
+            scrollImage.eraseColor(Color.TRANSPARENT);
+            scrollCanvas.drawBitmap(fullImage, shift, 0, null);
+            Bitmap scrolled = scrollImage;
+            scrollImage = fullImage;
+            fullImage = scrolled;
+            fullCanvas.setBitmap(fullImage);
+            scrollCanvas.setBitmap(scrollImage);
+            // whatever scrolled out of the plot area on the left is gone in a full render too
+            fullCanvas.drawRect(0, 0, transform.getLeft(), fullImage.getHeight(), clearPaint);
+        }
+
+        // the markers already on the layer keep their hit entries, moved along with them
+        for (int i = 0; i < renderedLineCount; i++) {
+            AbstractLine line = renderLines.get(i);
+            long appended = line.getAppendCount() - renderedAppendCounts[i];
+            evictedCounts[i] = (int) Math.min(renderedSizes[i] + appended - line.getSize(), renderedSizes[i]);
+            lastMarkerX[i] += shift;
+        }
+        hitIndex.scroll(renderedHitIndex, shift, evictedCounts, transform.getLeft());
+
+        for (drawingLineIndex = 0; drawingLineIndex < renderLines.size(); drawingLineIndex++) {
+            AbstractLine line = renderLines.get(drawingLineIndex);
+            // points before this one were on the layer already
+            int kept = renderedSizes[drawingLineIndex] - evictedCounts[drawingLineIndex];
+            // restart from the previous last point to connect the new segments
+            int from = Math.max(0, kept - 1);
+
+            drawSimpleLine(fullCanvas, line, null, from, line.getSize(), topPadding, bottomPadding, leftPadding, rightPadding);
+            if (line.isShowingPoints()) {
+                drawPoints(fullCanvas, line, null, kept, line.getSize(), markersThinned[drawingLineIndex]);
+            }
+        }
+        hitIndex.build(fullImage.getWidth(), fullImage.getHeight(), convertToPx(POINT_CLICK_DIAMETER, DP));
+        renderedHitIndex = hitIndex;
+        return true;
+    }
+
+    /**
+     * Subclasses drawing data-dependent content outside of the lines themselves return false
+     * while such content is shown, since it cannot be scrolled with the lines.
+     */
+    protected boolean supportsIncrementalRendering() {
+        return true;
+    }
+
+    private void recordRenderedData() {
+        dataLayerValid = true;
+        renderedScaleX = transform.getScaleX();
+        renderedOffsetX = transform.getOffsetX();
+        renderedScaleY = transform.getScaleY();
+        renderedOffsetY = transform.getOffsetY();
+        renderedLeft = transform.getLeft();
+        renderedTop = transform.getTop();
+        renderedRight = transform.getRight();
+        renderedBottom = transform.getBottom();
+
+        renderedLineCount = renderLines.size();
+        if (renderedLines.length < renderedLineCount) {
+            renderedLines = new AbstractLine[renderedLineCount];
+            renderedAppendCounts = new long[renderedLineCount];
+            renderedSizes = new int[renderedLineCount];
+            renderedEditCounts = new int[renderedLineCount];
+            renderedMarkersThinned = new boolean[renderedLineCount];
+        }
+        for (int i = 0; i < renderedLineCount; i++) {
+            AbstractLine line = renderLines.get(i);
+            renderedLines[i] = renderSources.get(i);
+            renderedAppendCounts[i] = line.getAppendCount();
+            renderedSizes[i] = line.getSize();
+            renderedEditCounts[i] = line.getEditCount();
+            renderedMarkersThinned[i] = markersThinned[i];
+        }
+        for (int i = renderedLineCount; i < renderedLines.length; i++) {
+            renderedLines[i] = null;
+        }
+    }
+
+    /**
+     * Captures a snapshot on the next animation frame, so that every change made until then
+     * ends up in a single copy of the lines.
+     */
+    private void requestSnapshot() {
+        if (!capturePosted) {
+            capturePosted = true;
+            ViewCompat.postOnAnimation(animationHost, captureSnapshot);
+        }
+    }
+
+    private final Runnable captureSnapshot = new Runnable() {
+        @Override
+        public void run() {
+            capturePosted = false;
+            if (renderRequest != null) {
+                capturePendingSnapshot();
+                renderRequest.run();
+                return;
+            }
+            if (renderHandler == null) {
+                return;
+            }
+            capturePendingSnapshot();
+            if (!renderHandler.hasMessages(MSG_RENDER)) {
+                renderHandler.sendEmptyMessage(MSG_RENDER);
+            }
+        }
+    };
+
+    /**
+     * Copies the lines and everything else a frame depends on into the pending snapshot,
+     * replacing a snapshot the render thread has not picked up yet. Must be called on the thread
+     * that modifies the lines.
+     */
+    private void capturePendingSnapshot() {
+        synchronized (frameLock) {
+            RenderSnapshot snapshot = pendingSnapshot;
+            snapshot.capture(lines);
+            snapshot.width = getWidth();
+            snapshot.height = getHeight();
+            snapshot.minX = getVisibleMinX();
+            snapshot.maxX = getVisibleMaxX();
+            snapshot.minY = getMinY();
+            snapshot.maxY = getMaxY();
+            snapshot.selectedLineIndex = selectedLineIndex;
+            snapshot.selectedPointIndex = selectedPointIndex;
+            captureConfig(snapshot);
+            snapshot.chromeDirty |= chromeDirty;
+            snapshotPending = true;
+        }
+        chromeDirty = false;
+        shouldUpdate = false;
+    }
+
+    /**
+     * Copies the styling and drawing options a frame depends on, so that the render pass never
+     * reads fields the UI thread may be changing.
+     */
+    private void captureConfig(RenderSnapshot snapshot) {
+        snapshot.textColor = textColor;
+        snapshot.textSize = textSize;
+        snapshot.xAxisTitle = xAxisTitle;
+        snapshot.yAxisTitle = yAxisTitle;
+        snapshot.showXAxisValues = showXAxisValues;
+        snapshot.showYAxisValues = showYAxisValues;
+        snapshot.autoXGrid = autoXGrid;
+        snapshot.autoYGrid = autoYGrid;
+        snapshot.xGrid.set(xGridList);
+        snapshot.yGrid.set(yGridList);
+        snapshot.gridColor = gridColor;
+        snapshot.xLabelFormatter = xLabelFormatter;
+        snapshot.yLabelFormatter = yLabelFormatter;
+        snapshot.hatchColor = hatchColor;
+        snapshot.lineToFill = lineToFill;
+        snapshot.visibleXRangeSet = visibleXRangeSet;
+        snapshot.pointDensityThreshold = pointDensityThreshold;
+        snapshot.batchedLineDrawing = batchedLineDrawing;
+        snapshot.incrementalRendering = incrementalRendering;
+    }
+
+    /**
+     * Renders the pending snapshot, if any, into the layers on the calling render thread and
+     * publishes the hit index of the new frame.
+     *
+     * @return false if there was nothing new to render
+     */
+    boolean renderPendingSnapshot() {
+        synchronized (frameLock) {
+            if (!snapshotPending) {
+                return false;
+            }
+            RenderSnapshot snapshot = pendingSnapshot;
+            pendingSnapshot = renderingSnapshot;
+            renderingSnapshot = snapshot;
+            snapshotPending = false;
+        }
+
+        RenderSnapshot snapshot = renderingSnapshot;
+        boolean chrome = snapshot.chromeDirty;
+        snapshot.chromeDirty = false;
+        if (snapshot.width <= 0 || snapshot.height <= 0) {
+            return false;
+        }
+        if (fullImage == null || fullImage.getWidth() != snapshot.width || fullImage.getHeight() != snapshot.height) {
+            releaseOffscreenBitmaps();
+            allocateOffscreenBitmaps(snapshot.width, snapshot.height);
+            chrome = true;
+        }
+
+        renderLines = snapshot.lines;
+        renderSources = snapshot.sources;
+        renderSelectedLineIndex = snapshot.selectedLineIndex;
+        renderSelectedPointIndex = snapshot.selectedPointIndex;
+        renderFrame = snapshot;
+        renderLayers(chrome, true, snapshot.minX, snapshot.maxX, snapshot.minY, snapshot.maxY);
+
+        synchronized (frameLock) {
+            PointHitIndex index = frontHitIndex;
+            frontHitIndex = hitIndex;
+            hitIndex = index;
+        }
+        return true;
+    }
+
+    private final Handler.Callback renderCallback = new Handler.Callback() {
+        @Override
+        public boolean handleMessage(Message message) {
+            if (renderPendingSnapshot()) {
+                publishFrame();
+            }
+            return true;
+        }
+    };
+
+    /**
+     * Composes the layers into the back buffer on the render thread and makes it the front one.
+     */
+    private void publishFrame() {
+        if (backImage == null || backImage.getWidth() != fullImage.getWidth() || backImage.getHeight() != fullImage.getHeight()) {
+            if (backImage != null) {
+                backImage.recycle();
+            }
+            backImage = createOffscreenBitmap(fullImage.getWidth(), fullImage.getHeight());
+            backCanvas.setBitmap(backImage);
+        }
+        backImage.eraseColor(Color.TRANSPARENT);
+        drawLayers(backCanvas);
+
+        synchronized (frameLock) {
+            Bitmap frame = frontImage;
+            frontImage = backImage;
+            backImage = frame;
+            backCanvas.setBitmap(backImage);
         }
+        postInvalidate();
+    }
+
+    /**
+     * Hands rendering over to a host that renders snapshots on its own thread with
+     * {@link #renderPendingSnapshot()} and {@link #drawLayers(Canvas)}, and is woken through
+     * {@code request} once one has been captured. The view itself is never attached in that case,
+     * so snapshot captures and animations are posted to {@code host}.
+     */
+    void setRenderHost(Runnable request, View host) {
+        renderRequest = request;
+        asyncRendering = request != null;
+        animationHost = host != null ? host : this;
+    }
+
+    /**
+     * Releases every bitmap; for hosts once their render thread has stopped.
+     */
+    void releaseRenderBitmaps() {
+        releaseOffscreenBitmaps();
+        releaseFrameBitmaps();
+    }
+
+    private void startRenderThread() {
+        if (renderThread != null) {
+            return;
+        }
+        renderThread = new HandlerThread("AbstractLineGraph", Process.THREAD_PRIORITY_DISPLAY);
+        renderThread.start();
+        renderHandler = new Handler(renderThread.getLooper(), renderCallback);
+    }
+
+    /**
+     * Stops the render thread and waits for the frame in progress, after which the render state
+     * belongs to the UI thread again.
+     */
+    private void stopRenderThread() {
+        if (renderThread == null) {
+            return;
+        }
+        renderHandler.removeMessages(MSG_RENDER);
+        renderThread.quit();
+        try {
+            renderThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        renderThread = null;
+        renderHandler = null;
+        synchronized (frameLock) {
+            snapshotPending = false;
+        }
+    }
 
-        Matrix m = new Matrix();
-        if (xAxisTitle != null) {
-            drawXAxisTitle(ca, xAxisTitle);
-            m.preScale(1, (getHeight() - txtPaint.getTextSize()) / getHeight());
+    private void allocateScrollBitmap(int width, int height) {
+        scrollImage = createOffscreenBitmap(width, height);
+        scrollCanvas.setBitmap(scrollImage);
+    }
+
+    private void allocateOffscreenBitmaps(int width, int height) {
+        if (width > 0 && height > 0) {
+            fullImage = createOffscreenBitmap(width, height);
+            fullCanvas.setBitmap(fullImage);
+            chromeImage = createOffscreenBitmap(width, height);
+            chromeCanvas.setBitmap(chromeImage);
+            dataLayerValid = false;
+            // the transform is rebuilt for the new size by the next layout pass
+            transform.set(width, height, 0, 0, 0, 0, Float.NaN, Float.NaN, Float.NaN, Float.NaN);
         }
+    }
 
-        if (yAxisTitle != null) {
-            drawYAxisTitle(ca, yAxisTitle);
-            m.postTranslate(txtPaint.getTextSize(), 0);
-            m.preScale((getWidth() - txtPaint.getTextSize()) / getWidth(), 1);
+    private void releaseOffscreenBitmaps() {
+        if (fullImage != null) {
+            fullImage.recycle();
+            fullImage = null;
         }
+        if (chromeImage != null) {
+            chromeImage.recycle();
+            chromeImage = null;
+        }
+        if (scrollImage != null) {
+            scrollImage.recycle();
+            scrollImage = null;
+        }
+    }
 
-        ca.drawBitmap(fullImage, m, null);
+    private void releaseFrameBitmaps() {
+        if (backImage != null) {
+            backImage.recycle();
+            backImage = null;
+        }
+        synchronized (frameLock) {
+            if (frontImage != null) {
+                frontImage.recycle();
+                frontImage = null;
+            }
+        }
     }
 
     protected abstract void onPreDrawGraph(Canvas canvas,
@@ -251,6 +1353,23 @@ public abstract class AbstractLineGraph extends Graph {
                                             float leftPadding,
                                             float rightPadding);
 
+    /**
+     * Returns the lines of the frame being rendered. These are copies of {@link #getLines()},
+     * except for immutable ones, when rendering in the background, so drawing code must use them
+     * instead of the live ones.
+     */
+    protected ArrayList<AbstractLine> getRenderLines() {
+        return renderLines;
+    }
+
+    /**
+     * Returns the data-to-pixel mapping of the frame being rendered, or of the last rendered
+     * frame outside of a render pass.
+     */
+    protected ViewportTransform getViewportTransform() {
+        return transform;
+    }
+
     protected float convertToRealXFromVirtualX(float virtualX, Canvas canvas, float leftPadding, float rightPadding) {
         float usableWidth = canvas.getWidth() - leftPadding - rightPadding;
         float xPercent = (virtualX - getMinX()) / (getMaxX() - getMinX());
@@ -263,13 +1382,17 @@ public abstract class AbstractLineGraph extends Graph {
         return (canvas.getHeight() - bottomPadding - (usableHeight * yPercent));
     }
 
-    private void drawPointSelectedMark(Canvas canvas, LinePoint point) {
+    private void drawPointSelectedMark(Canvas canvas, AbstractLine line, int index, float topPadding, float bottomPadding, float leftPadding, float rightPadding) {
+        float xPixels = transform.toScreenX(line.getX(index));
+        float yPixels = transform.toScreenY(line.getY(index));
+
+        paint.reset();
         paint.setStrokeWidth(convertToPx(6, DP));
         paint.setStrokeCap(Paint.Cap.ROUND);
 
-        paint.setColor(Color.parseColor("#33B5E5"));
+        paint.setColor(SELECTED_COLOR);
         paint.setAlpha(100);
-        canvas.drawPath(point.getPath(), paint);
+        canvas.drawCircle(xPixels, yPixels, convertToPx(POINT_CLICK_DIAMETER, DP), paint);
         paint.setAlpha(255);
     }
 
@@ -278,66 +1401,73 @@ public abstract class AbstractLineGraph extends Graph {
                                     float bottomPadding,
                                     float leftPadding,
                                     float rightPadding) {
-        float usableHeight = canvas.getHeight() - topPadding - bottomPadding;
-        float height = getMaxY() - getMinY();
-
         paint.reset();
-        paint.setColor(this.gridColor);
+        paint.setColor(renderFrame.gridColor);
         paint.setStrokeWidth(convertToPx(GRID_STROKE_WIDTH, DP));
         paint.setAlpha(50);
         paint.setAntiAlias(true);
 
-        for (Integer gridValue : yGridList) {
-            float pos = usableHeight * (gridValue / height);
+        for (int i = 0; i < yTicks.getCount(); i++) {
+            float pos = transform.toScreenY(yTicks.get(i));
 
             canvas.drawLine(
-                    leftPadding,
-                    canvas.getHeight() - (pos + bottomPadding),
-                    canvas.getWidth() - rightPadding,
-                    canvas.getHeight() - (pos + bottomPadding),
+                    transform.getLeft(),
+                    pos,
+                    transform.getRight(),
+                    pos,
                     paint);
         }
     }
 
     private void drawXAxisValues(Canvas canvas, float topPadding, float bottomPadding, float leftPadding, float rightPadding) {
-        float usableWidth = getWidth() - leftPadding - rightPadding;
-
-        int minSize = (int) convertToPx(50, DP);
-        float width = getMaxX() - getMinX();
-
         // Draw the x axis
-        for (Integer gridValue : xGridList) {
-            String num = gridValue.toString();
+        float gap = numPaint.getTextSize() / 2;
+        float lastRight = Float.NEGATIVE_INFINITY;
+        for (int i = 0; i < xTicks.getCount(); i++) {
+            float gridValue = xTicks.get(i);
+            if (renderFrame.visibleXRangeSet && (gridValue < transform.getMinX() || gridValue > transform.getMaxX())) {
+                continue;
+            }
+            int label = xLabels.lookup(gridValue, renderFrame.xLabelFormatter);
+            String num = xLabels.getLabel(label);
 
             // Find the proper position for the text
-            float pos = usableWidth * (gridValue / width);
-            // Add padding for the y axis
-            pos += leftPadding;
+            float pos = transform.toScreenX(gridValue);
             // Center text
-            pos -= numPaint.measureText(num) / 2;
+            pos -= xLabels.getWidth(label) / 2;
+
+            // Skip labels overlapping the previous one
+            if (pos < lastRight + gap) {
+                continue;
+            }
+            lastRight = pos + xLabels.getWidth(label);
 
             // Draw text
-            canvas.drawText(num, pos, getHeight() - numPaint.getTextSize() / 3, numPaint);
+            canvas.drawText(num, pos, canvas.getHeight() - numPaint.getTextSize() / 3, numPaint);
         }
     }
 
     private void drawYAxisValues(Canvas canvas, float topPadding, float bottomPadding, float leftPadding, float rightPadding) {
-        float usableHeight = canvas.getHeight() - bottomPadding - topPadding;
-
-        int minSize = (int) convertToPx(50, DP);
-        float height = getMaxY() - getMinY();
-
         // Draw the y axis
-        for (Integer gridValue : yGridList) {
-            String num = gridValue.toString();
+        float lastPosY = Float.NaN;
+        for (int i = 0; i < yTicks.getCount(); i++) {
+            float gridValue = yTicks.get(i);
 
             // Find the proper position for the text
-            float posY = usableHeight * (gridValue / height);
-            posY = canvas.getHeight() - (posY + bottomPadding);
+            float posY = transform.toScreenY(gridValue);
+
+            // Skip labels overlapping the previous one
+            if (Math.abs(posY - lastPosY) < numPaint.getTextSize()) {
+                continue;
+            }
+            lastPosY = posY;
+
+            int label = yLabels.lookup(gridValue, renderFrame.yLabelFormatter);
+            String num = yLabels.getLabel(label);
 
             // Center text
-            float posX = numPaint.getTextSize() - numPaint.measureText(num) / 2;
-            posY += numPaint.measureText(num) / 2;
+            float posX = numPaint.getTextSize() - yLabels.getWidth(label) / 2;
+            posY += yLabels.getWidth(label) / 2;
 
             // Draw text
             canvas.drawText(num, posX, posY, numPaint);
@@ -345,110 +1475,200 @@ public abstract class AbstractLineGraph extends Graph {
     }
 
     private void drawXAxisTitle(Canvas canvas, String xAxisTitle) {
-        canvas.drawText(xAxisTitle, (getWidth() - txtPaint.measureText(xAxisTitle)) / 2, getHeight() - txtPaint.getTextSize() / 3, txtPaint);
+        canvas.drawText(xAxisTitle, (canvas.getWidth() - txtPaint.measureText(xAxisTitle)) / 2, canvas.getHeight() - txtPaint.getTextSize() / 3, txtPaint);
     }
 
     private void drawYAxisTitle(Canvas canvas, String yAxisTitle) {
+        int width = canvas.getWidth();
+        int height = canvas.getHeight();
         canvas.save();
-        canvas.rotate(-90, getWidth() / 2, getHeight() / 2);
-        canvas.translate(0, getHeight() / 2);
-        canvas.translate(0, -getWidth() / 2);
-        canvas.drawText(yAxisTitle, (getWidth() - txtPaint.measureText(yAxisTitle)) / 2, txtPaint.getTextSize() * 4 / 5, txtPaint);
+        canvas.rotate(-90, width / 2, height / 2);
+        canvas.translate(0, height / 2);
+        canvas.translate(0, -width / 2);
+        canvas.drawText(yAxisTitle, (width - txtPaint.measureText(yAxisTitle)) / 2, txtPaint.getTextSize() * 4 / 5, txtPaint);
         canvas.restore();
     }
 
-    protected void drawLine(Canvas canvas, Line line, float topPadding, float bottomPadding, float leftPadding, float rightPadding) {
-        drawSimpleLine(canvas, line, topPadding, bottomPadding, leftPadding, rightPadding);
+    protected void drawLine(Canvas canvas, AbstractLine line, float topPadding, float bottomPadding, float leftPadding, float rightPadding) {
+        float minX = transform.getMinX();
+        float maxX = transform.getMaxX();
+
+        int from = firstDrawnIndex(line);
+        int to = endOfDrawnIndices(line);
+
+        // indices == null means every point in range is drawn
+        int[] indices = null;
+        int start = from;
+        int end = to;
+
+        if (line.getDownsampleMode() != AbstractLine.DOWNSAMPLE_NONE) {
+            int width = (int) (transform.getRight() - transform.getLeft());
+            if (to - from > width * DOWNSAMPLE_POINTS_PER_PIXEL && width > 1 && maxX > minX) {
+                LineDownsampler downsampler = line.getDownsampler();
+                start = 0;
+                end = downsampler.downsample(line.getDownsampleMode(), width, minX, maxX, from, to);
+                indices = downsampler.getIndices();
+            }
+        }
+
+        drawSimpleLine(canvas, line, indices, start, end, topPadding, bottomPadding, leftPadding, rightPadding);
+        markersThinned[drawingLineIndex] = shouldThinMarkers(line, indices, start, end);
+        markerDrawn[drawingLineIndex] = false;
         if (line.isShowingPoints()) {
-            for (int i = 0; i < line.getSize(); i++) {
-                drawPoint(canvas, line.getPoint(i), line.getColor(), topPadding, bottomPadding, leftPadding, rightPadding);
+            drawPoints(canvas, line, indices, start, end, markersThinned[drawingLineIndex]);
+        }
+    }
+
+    // points [firstDrawnIndex, endOfDrawnIndices) are drawn: for sorted lines the visible ones
+    // and one neighbour on each side, so that the segments crossing the edges are drawn too
+    private int firstDrawnIndex(AbstractLine line) {
+        if (line.isSortedByX()) {
+            return Math.max(0, line.lowerBoundX(transform.getMinX()) - 1);
+        }
+        return 0;
+    }
+
+    private int endOfDrawnIndices(AbstractLine line) {
+        if (line.isSortedByX()) {
+            return Math.min(line.getSize(), line.upperBoundX(transform.getMaxX()) + 1);
+        }
+        return line.getSize();
+    }
+
+    private void ensureLineStateCapacity(int lineCount) {
+        if (markersThinned.length < lineCount) {
+            markersThinned = new boolean[lineCount];
+            markerDrawn = new boolean[lineCount];
+            lastMarkerX = new float[lineCount];
+            lastMarkerY = new float[lineCount];
+            evictedCounts = new int[lineCount];
+        }
+    }
+
+    /**
+     * Returns whether the markers of entries {@code start} to {@code end} (exclusive) of
+     * {@code indices}, or of the line itself when {@code indices} is null, are to be thinned
+     * out: the line leaves it to the graph and they lie more densely than the threshold.
+     */
+    private boolean shouldThinMarkers(AbstractLine line, int[] indices, int start, int end) {
+        int count = end - start;
+        if (line.getPointsMode() != AbstractLine.POINTS_AUTO || count < 2) {
+            return false;
+        }
+        float span = transform.getRight() - transform.getLeft();
+        if (line.isSortedByX()) {
+            int first = indices == null ? start : indices[start];
+            int last = indices == null ? end - 1 : indices[end - 1];
+            span = Math.min(span, transform.toScreenX(line.getX(last)) - transform.toScreenX(line.getX(first)));
+        }
+        return count * convertToPx(MarkerSprite.RADIUS * 2, DP) > renderFrame.pointDensityThreshold * Math.max(span, 1);
+    }
+
+    /**
+     * Draws the markers of entries {@code start} to {@code end} (exclusive) of {@code indices},
+     * or of the line itself when {@code indices} is null, and adds them to the hit index. When
+     * {@code thinned}, markers overlapping the last one drawn of the line, possibly in an
+     * earlier call, are skipped.
+     */
+    private void drawPoints(Canvas canvas, AbstractLine line, int[] indices, int start, int end, boolean thinned) {
+        Bitmap marker = getMarker(line);
+        int center = MarkerSprite.getCenter(marker);
+        float diameter = convertToPx(MarkerSprite.RADIUS * 2, DP);
+        boolean drawn = markerDrawn[drawingLineIndex];
+        float lastX = lastMarkerX[drawingLineIndex], lastY = lastMarkerY[drawingLineIndex];
+        for (int k = start; k < end; k++) {
+            int i = indices == null ? k : indices[k];
+            float xPixels = transform.toScreenX(line.getX(i));
+            float yPixels = transform.toScreenY(line.getY(i));
+            if (thinned && drawn && Math.abs(xPixels - lastX) < diameter && Math.abs(yPixels - lastY) < diameter) {
+                continue;
             }
+            drawn = true;
+            lastX = xPixels;
+            lastY = yPixels;
+
+            // Only markers that have been drawn are clickable.
+            hitIndex.add(xPixels, yPixels, drawingLineIndex, i);
+            // stamped at whole pixels so that the sprite is not resampled
+            canvas.drawBitmap(marker, Math.round(xPixels) - center, Math.round(yPixels) - center, null);
         }
+        markerDrawn[drawingLineIndex] = drawn;
+        lastMarkerX[drawingLineIndex] = lastX;
+        lastMarkerY[drawingLineIndex] = lastY;
     }
 
-    private void drawSimpleLine(Canvas canvas, Line line, float topPadding, float bottomPadding, float leftPadding, float rightPadding) {
-        if (line.getSize() <= 1) {
+    /**
+     * Draws the segments between entries {@code from} and {@code to} (exclusive) of
+     * {@code indices}, or of the line itself when {@code indices} is null.
+     */
+    private void drawSimpleLine(Canvas canvas, AbstractLine line, int[] indices, int from, int to, float topPadding, float bottomPadding, float leftPadding, float rightPadding) {
+        if (to - from <= 1) {
             return;
         }
 
-        LinePoint lastPoint, newPoint;
-
         paint.reset();
         paint.setColor(line.getColor());
         paint.setStrokeWidth(convertToPx(GRAPH_STROKE_WIDTH, DP));
         paint.setAlpha(255);
         paint.setTextAlign(Paint.Align.CENTER);
 
-        {
-            lastPoint = line.getPoint(0);
+        if (renderFrame.batchedLineDrawing) {
+            drawBatchedLine(canvas, line, indices, from, to, topPadding, bottomPadding, leftPadding, rightPadding);
+            return;
         }
 
-        for (int i = 1; i < line.getSize(); i++) {
-            newPoint = line.getPoint(i);
-
+        int last = indices == null ? from : indices[from];
+        for (int k = from + 1; k < to; k++) {
+            int i = indices == null ? k : indices[k];
             canvas.drawLine(
-                    convertToRealXFromVirtualX(lastPoint.getX(), canvas, leftPadding, rightPadding),
-                    convertToRealYFromVirtualY(lastPoint.getY(), canvas, topPadding, bottomPadding),
-                    convertToRealXFromVirtualX(newPoint.getX(), canvas, leftPadding, rightPadding),
-                    convertToRealYFromVirtualY(newPoint.getY(), canvas, topPadding, bottomPadding),
+                    transform.toScreenX(line.getX(last)),
+                    transform.toScreenY(line.getY(last)),
+                    transform.toScreenX(line.getX(i)),
+                    transform.toScreenY(line.getY(i)),
                     paint);
-
-            lastPoint = newPoint;
+            last = i;
         }
     }
 
-    private void drawPoint(Canvas canvas, LinePoint point, int color, float topPadding, float bottomPadding, float leftPadding, float rightPadding) {
-        int pointCount = 0;
+    private void drawBatchedLine(Canvas canvas, AbstractLine line, int[] indices, int from, int to, float topPadding, float bottomPadding, float leftPadding, float rightPadding) {
+        int segments = Math.min(to - from - 1, MAX_BATCHED_SEGMENTS);
+        if (lineVertices.length < segments * 4) {
+            lineVertices = new float[segments * 4];
+        }
 
-        paint.reset();
-        paint.setStrokeWidth(convertToPx(GRAPH_STROKE_WIDTH, DP));
-        paint.setStrokeCap(Paint.Cap.ROUND);
+        int first = indices == null ? from : indices[from];
+        float scaleX = transform.getScaleX(), offsetX = transform.getOffsetX();
+        float scaleY = transform.getScaleY(), offsetY = transform.getOffsetY();
 
-        float xPixels = convertToRealXFromVirtualX(point.getX(), canvas, leftPadding, rightPadding);
-        float yPixels = convertToRealYFromVirtualY(point.getY(), canvas, topPadding, bottomPadding);
+        float lastX = line.getX(first) * scaleX + offsetX;
+        float lastY = line.getY(first) * scaleY + offsetY;
 
-        paint.setColor(color);
-        canvas.drawCircle(xPixels, yPixels, convertToPx(POINT_DIAMETER, DP), paint);
-        paint.setColor(Color.WHITE);
-        canvas.drawCircle(xPixels, yPixels, convertToPx(POINT_DIAMETER / 2, DP), paint);
+        int filled = 0;
+        for (int k = from + 1; k < to; k++) {
+            int i = indices == null ? k : indices[k];
+            float newX = line.getX(i) * scaleX + offsetX;
+            float newY = line.getY(i) * scaleY + offsetY;
 
-        Path path2 = new Path();
-        path2.addCircle(xPixels, yPixels, convertToPx(POINT_CLICK_DIAMETER, DP), Path.Direction.CW);
-        point.setPath(path2);
-        point.setRegion(new Region(
-                (int) (xPixels - convertToPx(POINT_CLICK_DIAMETER, DP)),
-                (int) (yPixels - convertToPx(POINT_CLICK_DIAMETER, DP)),
-                (int) (xPixels + convertToPx(POINT_CLICK_DIAMETER, DP)),
-                (int) (yPixels + convertToPx(POINT_CLICK_DIAMETER, DP))));
-    }
+            lineVertices[filled++] = lastX;
+            lineVertices[filled++] = lastY;
+            lineVertices[filled++] = newX;
+            lineVertices[filled++] = newY;
 
-    private float getGraphPaddingTop() {
-        if (showXAxisValues || showYAxisValues) {
-            return numPaint.measureText(getMaxY() + "") / 2;
-        }
-        return 0.0f;
-    }
+            if (filled == lineVertices.length) {
+                canvas.drawLines(lineVertices, 0, filled, paint);
+                filled = 0;
+            }
 
-    private float getGraphPaddingBottom() {
-        if (showXAxisValues || showYAxisValues) {
-            return numPaint.getTextSize() * 2f;
+            lastX = newX;
+            lastY = newY;
         }
-        return 0.0f;
-    }
 
-    private float getGraphPaddingLeft() {
-        if (showXAxisValues || showYAxisValues) {
-            return numPaint.getTextSize() * 2f;
+        if (filled > 0) {
+            canvas.drawLines(lineVertices, 0, filled, paint);
         }
-        return 0.0f;
     }
 
-    private float getGraphPaddingRight() {
-        if (showXAxisValues || showYAxisValues) {
-            return numPaint.measureText(getMaxX() + "") / 2;
-        }
-        return 0.0f;
+    private Bitmap getMarker(AbstractLine line) {
+        return MarkerSprite.getSprite(getContext().getResources().getDisplayMetrics().density, line.getColor());
     }
-
 }
-
@@ -0,0 +1,84 @@
+package hm.orz.octworks.extholographlibrary;
+
+import java.util.ArrayList;
+
+/**
+ * Tick values of one axis in a reusable primitive array, either copied from a grid list set by
+ * the caller or generated as "nice" multiples of 1, 2 or 5 times a power of ten.
+ */
+class AxisTicks {
+
+    // more ticks than this are never generated, whatever the size and the bounds
+    private static final int MAX_TICKS = 64;
+
+    private float[] values = new float[16];
+    private int count = 0;
+
+    int getCount() {
+        return count;
+    }
+
+    float get(int index) {
+        return values[index];
+    }
+
+    void set(ArrayList<Integer> grid) {
+        count = 0;
+        for (int i = 0; i < grid.size(); i++) {
+            add(grid.get(i));
+        }
+    }
+
+    void set(AxisTicks ticks) {
+        count = 0;
+        for (int i = 0; i < ticks.count; i++) {
+            add(ticks.values[i]);
+        }
+    }
+
+    /**
+     * Generates ticks covering {@code min} to {@code max} spaced at least {@code minSpacing}
+     * apart on an axis {@code length} pixels long.
+     */
+    void generate(float min, float max, float length, float minSpacing) {
+        count = 0;
+        double range = (double) max - min;
+        if (!(range > 0) || !(length > 0) || Double.isInfinite(range)) {
+            return;
+        }
+
+        int target = Math.max(2, Math.min(MAX_TICKS, (int) (length / minSpacing)));
+        double step = niceStep(range / target);
+        long first = (long) Math.ceil(min / step);
+        long last = (long) Math.floor(max / step);
+        for (long k = first; k <= last && count < MAX_TICKS; k++) {
+            // multiplying instead of accumulating keeps e.g. 0.6 from becoming 0.6000001
+            add((float) (k * step));
+        }
+    }
+
+    /**
+     * Rounds {@code rawStep} up to 1, 2 or 5 times a power of ten.
+     */
+    static double niceStep(double rawStep) {
+        double magnitude = Math.pow(10, Math.floor(Math.log10(rawStep)));
+        double residual = rawStep / magnitude;
+        if (residual <= 1) {
+            return magnitude;
+        } else if (residual <= 2) {
+            return 2 * magnitude;
+        } else if (residual <= 5) {
+            return 5 * magnitude;
+        }
+        return 10 * magnitude;
+    }
+
+    private void add(float value) {
+        if (count == values.length) {
+            float[] newValues = new float[count * 2];
+            System.arraycopy(values, 0, newValues, 0, count);
+            values = newValues;
+        }
+        values[count++] = value;
+    }
+}
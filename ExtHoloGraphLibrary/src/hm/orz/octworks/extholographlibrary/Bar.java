@@ -32,6 +32,10 @@ public class Bar {
 	private float value;
 	private Path path;
 	private Region region;
+	private String valueLabel;
+	private float labelledValue;
+	private String labelledUnit;
+	private boolean labelledAppended;
 	
 	public int getColor() {
 		return color;
@@ -63,5 +67,19 @@ public class Bar {
 	public void setRegion(Region region) {
 		this.region = region;
 	}
+
+	/**
+	 * Returns the value with the unit before or after it, formatted again only when the value or
+	 * the unit changed since the last call.
+	 */
+	String getValueLabel(String unit, boolean appended) {
+		if (valueLabel == null || labelledValue != value || !unit.equals(labelledUnit) || labelledAppended != appended) {
+			valueLabel = appended ? value + unit : unit + value;
+			labelledValue = value;
+			labelledUnit = unit;
+			labelledAppended = appended;
+		}
+		return valueLabel;
+	}
 	
 }
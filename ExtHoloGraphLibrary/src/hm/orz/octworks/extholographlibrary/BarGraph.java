@@ -25,14 +25,11 @@ package hm.orz.octworks.extholographlibrary;
 
 import android.content.Context;
 import android.graphics.Bitmap;
-import android.graphics.Bitmap.Config;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
 import android.graphics.Path;
-import android.graphics.Point;
 import android.graphics.Rect;
-import android.graphics.RectF;
 import android.graphics.Region;
 import android.graphics.drawable.NinePatchDrawable;
 import android.util.AttributeSet;
@@ -43,19 +40,24 @@ import org.jetbrains.annotations.NotNull;
 import java.util.ArrayList;
 
 public class BarGraph extends Graph {
+    private static final int SELECTED_COLOR = 0xff33b5e5;
+
     private ArrayList<Bar> points = new ArrayList<Bar>();
     private Paint p = new Paint();
-    private Path path = new Path();
-    private Rect r;
+    private final Rect r = new Rect();
     private boolean showBarText = true;
     private int indexSelected = -1;
     private OnBarClickedListener listener;
     private Bitmap fullImage;
+    private final Canvas fullCanvas = new Canvas();
     private boolean shouldUpdate = false;
     private String unit = "";
     private Boolean append = false;
     private Rect r2 = new Rect();
     private Rect r3 = new Rect();
+    private NinePatchDrawable popup;
+    // the text the unit's height is measured on, kept with the unit so drawing does not concatenate
+    private String unitProbe = "1";
 
     public BarGraph(Context context) {
         super(context);
@@ -77,6 +79,7 @@ public class BarGraph extends Graph {
 
     public void setUnit(String unit) {
         this.unit = unit;
+        this.unitProbe = unit + "1";
     }
 
     public String getUnit() {
@@ -95,13 +98,50 @@ public class BarGraph extends Graph {
         return this.points;
     }
 
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        releaseOffscreenBitmap();
+        allocateOffscreenBitmap(w, h);
+        shouldUpdate = true;
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        releaseOffscreenBitmap();
+    }
+
+    private void allocateOffscreenBitmap(int width, int height) {
+        if (width > 0 && height > 0) {
+            fullImage = createOffscreenBitmap(width, height);
+            fullCanvas.setBitmap(fullImage);
+        }
+    }
+
+    private void releaseOffscreenBitmap() {
+        if (fullImage != null) {
+            fullImage.recycle();
+            fullImage = null;
+        }
+    }
+
     public void onDraw(Canvas ca) {
 
-        if (fullImage == null || shouldUpdate) {
-            fullImage = Bitmap.createBitmap(getWidth(), getHeight(), Config.ARGB_8888);
-            Canvas canvas = new Canvas(fullImage);
-            canvas.drawColor(Color.TRANSPARENT);
-            NinePatchDrawable popup = (NinePatchDrawable) this.getResources().getDrawable(R.drawable.popup_black);
+        if (fullImage == null) {
+            allocateOffscreenBitmap(getWidth(), getHeight());
+            if (fullImage == null) {
+                return;
+            }
+            shouldUpdate = true;
+        }
+
+        if (shouldUpdate) {
+            fullImage.eraseColor(Color.TRANSPARENT);
+            Canvas canvas = fullCanvas;
+            if (popup == null) {
+                popup = (NinePatchDrawable) this.getResources().getDrawable(R.drawable.popup_black);
+            }
 
             float maxValue = 0;
             float padding = convertToPx(7, DP);
@@ -111,7 +151,7 @@ public class BarGraph extends Graph {
             float usableHeight;
             if (showBarText) {
                 this.p.setTextSize(convertToPx(20, SP));
-                this.p.getTextBounds(unit+"1", 0, unit.length()+1, r3);
+                this.p.getTextBounds(unitProbe, 0, unitProbe.length(), r3);
                 usableHeight = getHeight() - bottomPadding - Math.abs(r3.top - r3.bottom) - convertToPx(30, DP);
             } else {
                 usableHeight = getHeight() - bottomPadding;
@@ -127,21 +167,24 @@ public class BarGraph extends Graph {
 
             float barWidth = (getWidth() - (padding * 2) * points.size()) / points.size();
 
-            for (Bar p : points) {
-                maxValue += p.getValue();
+            for (int i = 0; i < points.size(); i++) {
+                maxValue += points.get(i).getValue();
             }
 
-            r = new Rect();
-
-            path.reset();
-
-            int count = 0;
-            for (Bar p : points) {
+            for (int count = 0; count < points.size(); count++) {
+                Bar p = points.get(count);
                 r.set((int) ((padding * 2) * count + padding + barWidth * count), (int) (getHeight() - bottomPadding - (usableHeight * (p.getValue() / maxValue))), (int) ((padding * 2) * count + padding + barWidth * (count + 1)), (int) (getHeight() - bottomPadding));
 
-                path.addRect(new RectF(r.left - selectPadding, r.top - selectPadding, r.right + selectPadding, r.bottom + selectPadding), Path.Direction.CW);
-                p.setPath(path);
-                p.setRegion(new Region(r.left - selectPadding, r.top - selectPadding, r.right + selectPadding, r.bottom + selectPadding));
+                // each bar keeps its selection outline and touch region from one draw to the next
+                if (p.getPath() == null) {
+                    p.setPath(new Path());
+                }
+                if (p.getRegion() == null) {
+                    p.setRegion(new Region());
+                }
+                p.getPath().reset();
+                p.getPath().addRect(r.left - selectPadding, r.top - selectPadding, r.right + selectPadding, r.bottom + selectPadding, Path.Direction.CW);
+                p.getRegion().set(r.left - selectPadding, r.top - selectPadding, r.right + selectPadding, r.bottom + selectPadding);
 
                 this.p.setColor(p.getColor() == -1 ? DEFAULT_COLORS.get(count % DEFAULT_COLORS.size()) : p.getColor());
                 this.p.setAlpha(255);
@@ -151,21 +194,20 @@ public class BarGraph extends Graph {
                 if (showBarText) {
                     this.p.setTextSize(convertToPx(20, SP));
                     this.p.setColor(Color.WHITE);
-                    this.p.getTextBounds(unit + p.getValue(), 0, 1, r2);
-                    popup.setBounds((int) (((r.left + r.right) / 2) - (this.p.measureText(unit + p.getValue()) / 2)) - (int) convertToPx(14, DP), r.top + (r2.top - r2.bottom) - (int) convertToPx(30, DP), (int) (((r.left + r.right) / 2) + (this.p.measureText(unit + p.getValue()) / 2)) + (int) convertToPx(14, DP), r.top);
+                    String label = p.getValueLabel(unit, isAppended());
+                    float labelWidth = this.p.measureText(label);
+                    // the popup height follows the first character of the unit, or of the value without one
+                    this.p.getTextBounds(unit.length() > 0 ? unit : label, 0, 1, r2);
+                    popup.setBounds((int) (((r.left + r.right) / 2) - (labelWidth / 2)) - (int) convertToPx(14, DP), r.top + (r2.top - r2.bottom) - (int) convertToPx(30, DP), (int) (((r.left + r.right) / 2) + (labelWidth / 2)) + (int) convertToPx(14, DP), r.top);
                     popup.draw(canvas);
-                    if (isAppended())
-                        canvas.drawText(p.getValue() + unit, (int) (((r.left + r.right) / 2) - (this.p.measureText(unit + p.getValue()) / 2)), r.top - convertToPx(20, DP), this.p);
-                    else
-                        canvas.drawText(unit + p.getValue(), (int) (((r.left + r.right) / 2) - (this.p.measureText(unit + p.getValue()) / 2)), r.top - convertToPx(20, DP), this.p);
+                    canvas.drawText(label, (int) (((r.left + r.right) / 2) - (labelWidth / 2)), r.top - convertToPx(20, DP), this.p);
                 }
                 if (indexSelected == count && listener != null) {
-                    this.p.setColor(Color.parseColor("#33B5E5"));
+                    this.p.setColor(SELECTED_COLOR);
                     this.p.setAlpha(100);
                     canvas.drawPath(p.getPath(), this.p);
                     this.p.setAlpha(255);
                 }
-                count++;
             }
             shouldUpdate = false;
         }
@@ -177,23 +219,23 @@ public class BarGraph extends Graph {
     @Override
     public boolean onTouchEvent(MotionEvent event) {
 
-        Point point = new Point();
-        point.x = (int) event.getX();
-        point.y = (int) event.getY();
+        int x = (int) event.getX();
+        int y = (int) event.getY();
 
-        int count = 0;
-        for (Bar bar : points) {
-            Region r = new Region();
-            r.setPath(bar.getPath(), bar.getRegion());
-            if (r.contains(point.x, point.y) && event.getAction() == MotionEvent.ACTION_DOWN) {
+        for (int count = 0; count < points.size(); count++) {
+            Region r = points.get(count).getRegion();
+            if (r == null) {
+                // not drawn yet
+                continue;
+            }
+            if (r.contains(x, y) && event.getAction() == MotionEvent.ACTION_DOWN) {
                 indexSelected = count;
             } else if (event.getAction() == MotionEvent.ACTION_UP) {
-                if (r.contains(point.x, point.y) && listener != null) {
+                if (r.contains(x, y) && listener != null) {
                     listener.onClick(indexSelected);
                 }
                 indexSelected = -1;
             }
-            count++;
         }
 
         if (event.getAction() == MotionEvent.ACTION_DOWN || event.getAction() == MotionEvent.ACTION_UP) {
@@ -205,6 +247,45 @@ public class BarGraph extends Graph {
         return true;
     }
 
+    @Override
+    void writeState(GraphState state) {
+        super.writeState(state);
+        state.putString(unit);
+        state.putBoolean(append);
+        state.putBoolean(showBarText);
+        int count = points.size();
+        float[] values = new float[count];
+        state.putInt(count);
+        for (int i = 0; i < count; i++) {
+            Bar bar = points.get(i);
+            values[i] = bar.getValue();
+            state.putInt(bar.getColor());
+            state.putString(bar.getName());
+        }
+        state.putFloats(values, 0, count);
+    }
+
+    @Override
+    void readState(GraphState state) {
+        super.readState(state);
+        setUnit(state.getString());
+        append = state.getBoolean();
+        showBarText = state.getBoolean();
+        int count = state.getInt();
+        ArrayList<Bar> bars = new ArrayList<Bar>(count);
+        for (int i = 0; i < count; i++) {
+            Bar bar = new Bar();
+            bar.setColor(state.getInt());
+            bar.setName(state.getString());
+            bars.add(bar);
+        }
+        float[] values = state.getFloats();
+        for (int i = 0; i < count; i++) {
+            bars.get(i).setValue(values[i]);
+        }
+        setBars(bars);
+    }
+
     public void setOnBarClickedListener(OnBarClickedListener listener) {
         this.listener = listener;
     }
@@ -0,0 +1,44 @@
+package hm.orz.octworks.extholographlibrary;
+
+import android.graphics.Bitmap;
+
+/**
+ * Bitmaps rendered once per screen density and color and shared by every graph. Once the cache
+ * is full, new bitmaps replace the oldest ones, should colors keep changing. Safe to use from
+ * render threads.
+ */
+abstract class BitmapCache {
+
+    private static final int MAX_BITMAPS = 64;
+
+    // looked up linearly, so that finding a bitmap does not box its key
+    private final long[] keys = new long[MAX_BITMAPS];
+    private final Bitmap[] bitmaps = new Bitmap[MAX_BITMAPS];
+    private int size = 0;
+    private int nextEvicted = 0;
+
+    /**
+     * Returns the bitmap for the given density and color, rendering it on first use.
+     */
+    synchronized Bitmap get(float density, int color) {
+        long key = ((long) Float.floatToIntBits(density) << 32) | (color & 0xffffffffL);
+        for (int i = 0; i < size; i++) {
+            if (keys[i] == key) {
+                return bitmaps[i];
+            }
+        }
+
+        int slot;
+        if (size < MAX_BITMAPS) {
+            slot = size++;
+        } else {
+            slot = nextEvicted;
+            nextEvicted = (nextEvicted + 1) % MAX_BITMAPS;
+        }
+        keys[slot] = key;
+        bitmaps[slot] = create(density, color);
+        return bitmaps[slot];
+    }
+
+    abstract Bitmap create(float density, int color);
+}
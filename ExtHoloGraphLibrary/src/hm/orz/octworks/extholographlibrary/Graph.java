@@ -1,10 +1,17 @@
 package hm.orz.octworks.extholographlibrary;
 
 import android.content.Context;
+import android.graphics.Bitmap;
+import android.os.Parcel;
+import android.os.Parcelable;
 import android.util.AttributeSet;
 import android.util.TypedValue;
 import android.view.View;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.util.Arrays;
 import java.util.List;
 
@@ -13,6 +20,10 @@ class Graph extends View {
     static final int DP = TypedValue.COMPLEX_UNIT_DIP;
     static final int SP = TypedValue.COMPLEX_UNIT_SP;
 
+    private int bitmapAllocationCount = 0;
+    // the file the last saved state spilled to, replaced by the next one
+    private File spillFile;
+
     public Graph(Context context){
         super(context);
     }
@@ -24,4 +35,187 @@ class Graph extends View {
     float convertToPx(int value, int unit) {
         return TypedValue.applyDimension(unit, value, getContext().getResources().getDisplayMetrics());
     }
+
+    /**
+     * Returns how many offscreen bitmaps this view has allocated so far. The count only grows on
+     * size changes and re-attachment, never on plain redraws.
+     */
+    public int getBitmapAllocationCount() {
+        return bitmapAllocationCount;
+    }
+
+    Bitmap createOffscreenBitmap(int width, int height) {
+        bitmapAllocationCount++;
+        return Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+    }
+
+    @Override
+    protected Parcelable onSaveInstanceState() {
+        Parcelable state = SavedState.save(getContext(), super.onSaveInstanceState(), this, spillFile);
+        spillFile = SavedState.spillFileOf(state);
+        return state;
+    }
+
+    @Override
+    protected void onRestoreInstanceState(Parcelable state) {
+        if (!(state instanceof SavedState)) {
+            super.onRestoreInstanceState(state);
+            return;
+        }
+        SavedState savedState = (SavedState) state;
+        super.onRestoreInstanceState(savedState.getSuperState());
+        spillFile = SavedState.restore(savedState, this);
+    }
+
+    /**
+     * Writes the data and settings to save with the view state. Subclasses call through first
+     * and read back the same values in the same order in {@link #readState(GraphState)}.
+     */
+    void writeState(GraphState state) {
+    }
+
+    void readState(GraphState state) {
+    }
+
+    /**
+     * View state holding a {@link GraphState} snapshot, or the path of the file it was written
+     * to when it is too large to be parcelled.
+     */
+    public static class SavedState extends BaseSavedState {
+        // the saved state of a whole activity must fit in one Binder transaction of about 1 MB
+        static final int MAX_PARCELLED_SIZE = 64 * 1024;
+
+        private final byte[] data;
+        private final String spillPath;
+
+        SavedState(Parcelable superState, byte[] data, String spillPath) {
+            super(superState);
+            this.data = data;
+            this.spillPath = spillPath;
+        }
+
+        /**
+         * Saves the state of {@code graph} on top of {@code superState}, for the
+         * onSaveInstanceState() of the view showing it. The file the previous save spilled to
+         * is deleted first. Returns {@code superState} alone when the state cannot be written,
+         * as losing the data is better than failing the whole transaction.
+         */
+        static Parcelable save(Context context, Parcelable superState, Graph graph, File lastSpillFile) {
+            GraphState state = new GraphState();
+            graph.writeState(state);
+            if (lastSpillFile != null) {
+                lastSpillFile.delete();
+            }
+            SavedState savedState = create(context, superState, state);
+            return savedState != null ? savedState : superState;
+        }
+
+        /**
+         * Reads {@code savedState} back into {@code graph}, for the onRestoreInstanceState() of
+         * the view showing it, and returns the file the state spilled to. That file is kept
+         * until the next save, as the system may hand the same state out again.
+         */
+        static File restore(SavedState savedState, Graph graph) {
+            GraphState state = savedState.getGraphState();
+            if (state != null) {
+                graph.readState(state);
+            }
+            return savedState.getSpillFile();
+        }
+
+        /**
+         * Returns the file a state returned by {@link #save} spilled to, or null.
+         */
+        static File spillFileOf(Parcelable state) {
+            return state instanceof SavedState ? ((SavedState) state).getSpillFile() : null;
+        }
+
+        /**
+         * Returns a state holding {@code state}, spilled to a file in the cache directory when it
+         * is too large to be parcelled, or null when that file cannot be written.
+         */
+        static SavedState create(Context context, Parcelable superState, GraphState state) {
+            byte[] data = state.toByteArray();
+            if (data.length <= MAX_PARCELLED_SIZE) {
+                return new SavedState(superState, data, null);
+            }
+            File file = null;
+            try {
+                file = File.createTempFile("graph-state", null, context.getCacheDir());
+                FileOutputStream output = new FileOutputStream(file);
+                try {
+                    output.write(data);
+                } finally {
+                    output.close();
+                }
+                return new SavedState(superState, null, file.getPath());
+            } catch (IOException e) {
+                if (file != null) {
+                    file.delete();
+                }
+                return null;
+            }
+        }
+
+        /**
+         * Returns the file the state spilled to, which the view deletes on its next save, or
+         * null when the state was parcelled.
+         */
+        File getSpillFile() {
+            return spillPath != null ? new File(spillPath) : null;
+        }
+
+        /**
+         * Returns the saved state, or null when its spill file cannot be read.
+         */
+        GraphState getGraphState() {
+            if (data != null) {
+                return new GraphState(data);
+            }
+            if (spillPath == null) {
+                return null;
+            }
+            try {
+                return new GraphState(readSpillFile(new File(spillPath)));
+            } catch (IOException e) {
+                return null;
+            }
+        }
+
+        private static byte[] readSpillFile(File file) throws IOException {
+            RandomAccessFile input = new RandomAccessFile(file, "r");
+            try {
+                byte[] data = new byte[(int) input.length()];
+                input.readFully(data);
+                return data;
+            } finally {
+                input.close();
+            }
+        }
+
+        private SavedState(Parcel source) {
+            super(source);
+            data = source.createByteArray();
+            spillPath = source.readString();
+        }
+
+        @Override
+        public void writeToParcel(Parcel dest, int flags) {
+            super.writeToParcel(dest, flags);
+            dest.writeByteArray(data);
+            dest.writeString(spillPath);
+        }
+
+        public static final Parcelable.Creator<SavedState> CREATOR = new Parcelable.Creator<SavedState>() {
+            @Override
+            public SavedState createFromParcel(Parcel source) {
+                return new SavedState(source);
+            }
+
+            @Override
+            public SavedState[] newArray(int size) {
+                return new SavedState[size];
+            }
+        };
+    }
 }
@@ -0,0 +1,142 @@
+package hm.orz.octworks.extholographlibrary;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+
+/**
+ * Binary snapshot of a graph's data and settings, written and read back in the same order by
+ * {@link Graph#writeState(GraphState)} and {@link Graph#readState(GraphState)}. Arrays are
+ * copied in bulk and in native byte order, since a snapshot is only ever read back on the
+ * device that wrote it.
+ */
+class GraphState {
+
+    private ByteBuffer buffer;
+
+    GraphState() {
+        buffer = ByteBuffer.allocate(1024).order(ByteOrder.nativeOrder());
+    }
+
+    GraphState(byte[] data) {
+        buffer = ByteBuffer.wrap(data).order(ByteOrder.nativeOrder());
+    }
+
+    byte[] toByteArray() {
+        byte[] data = new byte[buffer.position()];
+        System.arraycopy(buffer.array(), 0, data, 0, data.length);
+        return data;
+    }
+
+    void putInt(int value) {
+        ensureRemaining(4);
+        buffer.putInt(value);
+    }
+
+    int getInt() {
+        return buffer.getInt();
+    }
+
+    void putFloat(float value) {
+        ensureRemaining(4);
+        buffer.putFloat(value);
+    }
+
+    float getFloat() {
+        return buffer.getFloat();
+    }
+
+    void putBoolean(boolean value) {
+        ensureRemaining(1);
+        buffer.put(value ? (byte) 1 : (byte) 0);
+    }
+
+    boolean getBoolean() {
+        return buffer.get() != 0;
+    }
+
+    /**
+     * Writes a string, which may be null.
+     */
+    void putString(String value) {
+        if (value == null) {
+            putInt(-1);
+            return;
+        }
+        putInt(value.length());
+        ensureRemaining(value.length() * 2);
+        for (int i = 0; i < value.length(); i++) {
+            buffer.putChar(value.charAt(i));
+        }
+    }
+
+    String getString() {
+        int length = getInt();
+        if (length < 0) {
+            return null;
+        }
+        char[] chars = new char[length];
+        buffer.asCharBuffer().get(chars);
+        buffer.position(buffer.position() + length * 2);
+        return new String(chars);
+    }
+
+    /**
+     * Writes {@code values[offset]} to {@code values[offset + length - 1]} in one copy.
+     */
+    void putFloats(float[] values, int offset, int length) {
+        putInt(length);
+        ensureRemaining(length * 4);
+        buffer.asFloatBuffer().put(values, offset, length);
+        buffer.position(buffer.position() + length * 4);
+    }
+
+    /**
+     * Writes the {@code length} values of the ring buffer {@code values} starting at
+     * {@code start} and wrapping around its end, in two copies. They are read back in order by
+     * {@link #getFloats()}.
+     */
+    void putFloatsWrapped(float[] values, int start, int length) {
+        putInt(length);
+        ensureRemaining(length * 4);
+        int head = Math.min(length, values.length - start);
+        FloatBuffer floats = buffer.asFloatBuffer();
+        floats.put(values, start, head);
+        floats.put(values, 0, length - head);
+        buffer.position(buffer.position() + length * 4);
+    }
+
+    float[] getFloats() {
+        float[] values = new float[getInt()];
+        buffer.asFloatBuffer().get(values);
+        buffer.position(buffer.position() + values.length * 4);
+        return values;
+    }
+
+    void putInts(ArrayList<Integer> values) {
+        putInt(values.size());
+        for (int i = 0; i < values.size(); i++) {
+            putInt(values.get(i));
+        }
+    }
+
+    ArrayList<Integer> getInts() {
+        int count = getInt();
+        ArrayList<Integer> values = new ArrayList<Integer>(count);
+        for (int i = 0; i < count; i++) {
+            values.add(getInt());
+        }
+        return values;
+    }
+
+    private void ensureRemaining(int count) {
+        if (buffer.remaining() >= count) {
+            return;
+        }
+        ByteBuffer newBuffer = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + count));
+        newBuffer.order(ByteOrder.nativeOrder());
+        newBuffer.put(buffer.array(), 0, buffer.position());
+        buffer = newBuffer;
+    }
+}
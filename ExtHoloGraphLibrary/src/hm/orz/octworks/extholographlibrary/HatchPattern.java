@@ -0,0 +1,50 @@
+package hm.orz.octworks.extholographlibrary;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+
+/**
+ * Repeating tiles of the diagonal hatch used to fill areas. A tile is rendered once per screen
+ * density and color and shared by every graph, which paints it through a
+ * {@link android.graphics.BitmapShader}.
+ */
+class HatchPattern {
+
+    // spacing of the hatch lines, in dp
+    static final int SPACING = 10;
+    private static final float STROKE_WIDTH = 2;
+
+    private static final BitmapCache tiles = new BitmapCache() {
+        @Override
+        Bitmap create(float density, int color) {
+            return createTile(Math.max(1, Math.round(SPACING * density)), color);
+        }
+    };
+
+    private HatchPattern() {
+    }
+
+    /**
+     * Returns the tile for the given density and color, rendering it on first use. Safe to call
+     * from render threads.
+     */
+    static Bitmap getTile(float density, int color) {
+        return tiles.get(density, color);
+    }
+
+    private static Bitmap createTile(int size, int color) {
+        Bitmap tile = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(tile);
+        Paint paint = new Paint();
+        paint.setColor(color);
+        paint.setStrokeWidth(STROKE_WIDTH);
+        paint.setAntiAlias(true);
+        // the diagonal through the tile and the two that cross its corners, so that the lines
+        // continue seamlessly into the neighbouring tiles
+        for (int k = -1; k <= 1; k++) {
+            canvas.drawLine(-1, -1 + k * size, size + 1, size + 1 + k * size, paint);
+        }
+        return tile;
+    }
+}
@@ -0,0 +1,91 @@
+package hm.orz.octworks.extholographlibrary;
+
+import android.graphics.Paint;
+
+/**
+ * Small least-recently-used cache of formatted labels and their measured widths, so that labels
+ * which do not change from one layout to the next are neither formatted nor measured again.
+ * Lookups are linear over a few dozen entries and do not allocate.
+ */
+class LabelCache {
+
+    static final AbstractLineGraph.LabelFormatter DEFAULT_FORMATTER = new AbstractLineGraph.LabelFormatter() {
+        @Override
+        public String format(float value) {
+            if (value == (int) value) {
+                return Integer.toString((int) value);
+            }
+            return Float.toString(value);
+        }
+    };
+
+    private final Paint paint;
+
+    private final int[] keys;
+    private final String[] labels;
+    private final float[] widths;
+    private final long[] lastUses;
+    private int size = 0;
+    private long clock = 0;
+
+    private AbstractLineGraph.LabelFormatter cachedFormatter;
+    private float cachedTextSize;
+
+    LabelCache(Paint paint, int capacity) {
+        this.paint = paint;
+        keys = new int[capacity];
+        labels = new String[capacity];
+        widths = new float[capacity];
+        lastUses = new long[capacity];
+    }
+
+    /**
+     * Returns the slot holding the label of {@code value} as formatted by {@code formatter},
+     * formatting and measuring it on a miss. The slot is valid until the next lookup.
+     */
+    int lookup(float value, AbstractLineGraph.LabelFormatter formatter) {
+        if (formatter != cachedFormatter || paint.getTextSize() != cachedTextSize) {
+            cachedFormatter = formatter;
+            cachedTextSize = paint.getTextSize();
+            for (int i = 0; i < size; i++) {
+                labels[i] = null;
+            }
+            size = 0;
+        }
+
+        clock++;
+        int key = Float.floatToIntBits(value);
+        for (int i = 0; i < size; i++) {
+            if (keys[i] == key) {
+                lastUses[i] = clock;
+                return i;
+            }
+        }
+
+        int slot;
+        if (size < keys.length) {
+            slot = size++;
+        } else {
+            slot = 0;
+            for (int i = 1; i < size; i++) {
+                if (lastUses[i] < lastUses[slot]) {
+                    slot = i;
+                }
+            }
+        }
+        String label = formatter.format(value);
+        keys[slot] = key;
+        labels[slot] = label;
+        widths[slot] = paint.measureText(label);
+        lastUses[slot] = clock;
+        return slot;
+    }
+
+    String getLabel(int slot) {
+        return labels[slot];
+    }
+
+    float getWidth(int slot) {
+        return widths[slot];
+    }
+}
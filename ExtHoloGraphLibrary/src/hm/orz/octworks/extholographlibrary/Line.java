@@ -23,49 +23,470 @@
 
 package hm.orz.octworks.extholographlibrary;
 
+import java.nio.FloatBuffer;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
-public class Line {
+/**
+ * A series of points stored column-wise in growable primitive arrays.
+ * Renderers should iterate with {@link #getSize()}, {@link #getX(int)} and {@link #getY(int)};
+ * {@link #getPoints()} is only kept as a compatibility view.
+ */
+public class Line extends AbstractLine {
+
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private float[] xs = new float[DEFAULT_CAPACITY];
+    private float[] ys = new float[DEFAULT_CAPACITY];
+    private String[] labels = null;
+    private int size = 0;
+
+    private ArrayList<LinePoint> pointsView = null;
+    private List<LinePoint> readOnlyPointsView = null;
 
-    private ArrayList<LinePoint> points = new ArrayList<LinePoint>();
-    private int color;
-    private boolean showPoints = true;
+    // Bounds are kept up to date on append and rebuilt lazily after removals or in-place edits.
+    private float minX, maxX, minY, maxY;
+    private boolean boundsValid = true;
+    // Whether x never decreases, kept on append and rechecked lazily after in-place edits.
+    private boolean sortedX = true;
+    private boolean sortednessValid = true;
 
+    // the line last copied by copyFrom, whose counts the copy took over
+    private AbstractLine copiedSource;
 
-    public int getColor() {
-        return color;
+    /**
+     * Returns the points as {@link LinePoint} objects. The list is materialized lazily and
+     * its elements write through to this line, but the list itself cannot be modified; use
+     * {@link #addPoint(LinePoint)} and {@link #removePoint(int)} instead.
+     */
+    public List<LinePoint> getPoints() {
+        if (pointsView == null) {
+            int count = getSize();
+            ArrayList<LinePoint> view = new ArrayList<LinePoint>(count);
+            for (int i = 0; i < count; i++) {
+                view.add(new LinePoint(this, i));
+            }
+            pointsView = view;
+            readOnlyPointsView = Collections.unmodifiableList(view);
+        }
+        return readOnlyPointsView;
     }
 
-    public void setColor(int color) {
-        this.color = color;
+    public void setPoints(List<LinePoint> points) {
+        clear();
+        ensureCapacity(points.size());
+        for (LinePoint point : points) {
+            addPoint(point);
+        }
     }
 
-    public ArrayList<LinePoint> getPoints() {
-        return points;
+    /**
+     * Appends the coordinates and label of {@code point}. They are copied, so changing the point
+     * afterwards does not change the line; use {@link #getPoint(int)} for a point that does.
+     */
+    public void addPoint(LinePoint point) {
+        addPoint(point.getX(), point.getY());
+        if (point.getLabel_string() != null) {
+            // part of the append, so not counted as an edit
+            storeLabel(size - 1, point.getLabel_string());
+        }
     }
 
-    public void setPoints(ArrayList<LinePoint> points) {
-        this.points = points;
+    public void addPoint(float x, float y) {
+        ensureCapacity(size + 1);
+        xs[size] = x;
+        ys[size] = y;
+        size++;
+        onAppended();
+        if (boundsValid) {
+            includeInBounds(x, y);
+        }
+        if (size > 1 && x < xs[size - 2]) {
+            sortedX = false;
+        }
+        if (pointsView != null) {
+            pointsView.add(new LinePoint(this, size - 1));
+        }
     }
 
-    public void addPoint(LinePoint point) {
-        points.add(point);
+    /**
+     * Appends the points {@code x[i]}, {@code y[i]} of two arrays of the same length.
+     */
+    public void addPoints(float[] x, float[] y) {
+        if (x.length != y.length) {
+            throw new IllegalArgumentException("x has " + x.length + " values, y has " + y.length);
+        }
+        addPoints(x, y, 0, x.length);
+    }
+
+    /**
+     * Appends the points {@code x[offset + i]}, {@code y[offset + i]} for {@code i} below
+     * {@code length}, copying them in bulk. Bounds and sortedness are updated once for the
+     * whole batch.
+     */
+    public void addPoints(float[] x, float[] y, int offset, int length) {
+        if (offset < 0 || length < 0 || offset + length > x.length || offset + length > y.length) {
+            throw new IndexOutOfBoundsException("Invalid range " + offset + "+" + length
+                    + ", array lengths are " + x.length + " and " + y.length);
+        }
+        ensureCapacity(size + length);
+        System.arraycopy(x, offset, xs, size, length);
+        System.arraycopy(y, offset, ys, size, length);
+        appendStored(length);
+    }
+
+    /**
+     * Appends the points remaining in {@code x} and {@code y}, which must have as many values
+     * left, and advances both buffers past them.
+     */
+    public void addPoints(FloatBuffer x, FloatBuffer y) {
+        int length = x.remaining();
+        if (y.remaining() != length) {
+            throw new IllegalArgumentException("x has " + length + " values remaining, y has " + y.remaining());
+        }
+        ensureCapacity(size + length);
+        x.get(xs, size, length);
+        y.get(ys, size, length);
+        appendStored(length);
+    }
+
+    /**
+     * Replaces the points with those of two arrays of the same length.
+     */
+    public void setPoints(float[] x, float[] y) {
+        if (x.length != y.length) {
+            throw new IllegalArgumentException("x has " + x.length + " values, y has " + y.length);
+        }
+        clear();
+        addPoints(x, y, 0, x.length);
+    }
+
+    /**
+     * Makes {@code x} and {@code y}, which must have the same length, the storage of this line
+     * without copying them; their first {@code size} entries become its points. The line keeps
+     * writing to the arrays until it outgrows them, so callers must not modify them afterwards.
+     */
+    public void adoptPoints(float[] x, float[] y, int size) {
+        if (x.length != y.length) {
+            throw new IllegalArgumentException("x has " + x.length + " values, y has " + y.length);
+        }
+        if (size < 0 || size > x.length) {
+            throw new IndexOutOfBoundsException("Invalid size " + size + ", array length is " + x.length);
+        }
+        invalidatePointsView();
+        xs = x;
+        ys = y;
+        labels = null;
+        this.size = size;
+        boundsValid = false;
+        sortednessValid = false;
+        onEdited();
+    }
+
+    public void removePoint(int index) {
+        checkIndex(index);
+        invalidatePointsView();
+        int moved = size - index - 1;
+        if (moved > 0) {
+            System.arraycopy(xs, index + 1, xs, index, moved);
+            System.arraycopy(ys, index + 1, ys, index, moved);
+            if (labels != null) {
+                System.arraycopy(labels, index + 1, labels, index, moved);
+            }
+        }
+        size--;
+        if (labels != null) {
+            labels[size] = null;
+        }
+        boundsValid = false;
+        if (!sortedX) {
+            // removing a point may have removed the only descent
+            sortednessValid = false;
+        }
+        onEdited();
+    }
+
+    public void clear() {
+        invalidatePointsView();
+        size = 0;
+        labels = null;
+        boundsValid = true;
+        sortedX = true;
+        sortednessValid = true;
+        onEdited();
     }
 
     public LinePoint getPoint(int index) {
-        return points.get(index);
+        return getPoints().get(index);
+    }
+
+    @Override
+    public float getX(int index) {
+        checkIndex(index);
+        return xs[index];
+    }
+
+    @Override
+    public float getY(int index) {
+        checkIndex(index);
+        return ys[index];
+    }
+
+    @Override
+    public String getLabel(int index) {
+        checkIndex(index);
+        return labels == null ? null : labels[index];
+    }
+
+    public void setX(int index, float x) {
+        checkIndex(index);
+        xs[index] = x;
+        boundsValid = false;
+        sortednessValid = false;
+        onEdited();
+    }
+
+    public void setY(int index, float y) {
+        checkIndex(index);
+        ys[index] = y;
+        boundsValid = false;
+        onEdited();
+    }
+
+    public void setLabel(int index, String label) {
+        checkIndex(index);
+        if (storeLabel(index, label)) {
+            onEdited();
+        }
     }
 
+    /**
+     * @return false if nothing changed
+     */
+    private boolean storeLabel(int index, String label) {
+        if (labels == null) {
+            if (label == null) {
+                return false;
+            }
+            labels = new String[xs.length];
+        }
+        labels[index] = label;
+        return true;
+    }
+
+    @Override
     public int getSize() {
-        return points.size();
+        return size;
+    }
+
+    @Override
+    public float getMinX() {
+        validateBounds();
+        return minX;
+    }
+
+    @Override
+    public float getMaxX() {
+        validateBounds();
+        return maxX;
+    }
+
+    @Override
+    public float getMinY() {
+        validateBounds();
+        return minY;
+    }
+
+    @Override
+    public float getMaxY() {
+        validateBounds();
+        return maxY;
+    }
+
+    @Override
+    public boolean isSortedByX() {
+        if (!sortednessValid) {
+            sortedX = true;
+            for (int i = 1; i < size; i++) {
+                if (xs[i] < xs[i - 1]) {
+                    sortedX = false;
+                    break;
+                }
+            }
+            sortednessValid = true;
+        }
+        return sortedX;
+    }
+
+    /**
+     * Replaces the contents and style of this line with those of {@code source}, reusing the
+     * arrays. The append and edit counts are taken over, so that a copy can stand in for its
+     * source when a renderer checks what changed. They only describe changes to the same source
+     * though, so the pyramid is dropped when the copy is taken from another line.
+     */
+    void copyFrom(AbstractLine source) {
+        invalidatePointsView();
+        int count = source.getSize();
+        size = 0;
+        ensureCapacity(count);
+        for (int i = 0; i < count; i++) {
+            xs[i] = source.getX(i);
+            ys[i] = source.getY(i);
+        }
+        String[] sourceLabels = source instanceof Line ? ((Line) source).labels : null;
+        if (sourceLabels != null) {
+            if (labels == null || labels.length < xs.length) {
+                labels = new String[xs.length];
+            }
+            System.arraycopy(sourceLabels, 0, labels, 0, count);
+        } else {
+            labels = null;
+        }
+        size = count;
+        boundsValid = false;
+        sortedX = source.isSortedByX();
+        sortednessValid = true;
+
+        boolean sameSource = source == copiedSource;
+        if (!sameSource) {
+            setPyramidEnabled(false);
+            copiedSource = source;
+        }
+        setPyramidEnabled(source.isPyramidEnabled());
+        copyStyleAndCounts(source, sameSource);
+    }
+
+    @Override
+    void writeState(GraphState state) {
+        state.putInt(STATE_LINE);
+        writeStyle(state);
+        state.putFloats(xs, 0, size);
+        state.putFloats(ys, 0, size);
+        state.putBoolean(labels != null);
+        if (labels != null) {
+            for (int i = 0; i < size; i++) {
+                state.putString(labels[i]);
+            }
+        }
+    }
+
+    static Line readLineState(GraphState state) {
+        Line line = new Line();
+        line.readStyle(state);
+        float[] x = state.getFloats();
+        float[] y = state.getFloats();
+        line.adoptPoints(x, y, x.length);
+        if (state.getBoolean()) {
+            for (int i = 0; i < x.length; i++) {
+                line.setLabel(i, state.getString());
+            }
+        }
+        return line;
+    }
+
+    /**
+     * Takes in the {@code length} points stored past the end of the line by a bulk append,
+     * updating the bounds and the sortedness in one pass over them.
+     */
+    private void appendStored(int length) {
+        if (length == 0) {
+            return;
+        }
+        invalidatePointsView();
+        int end = size + length;
+        if (boundsValid) {
+            int i = size;
+            if (size == 0) {
+                minX = maxX = xs[0];
+                minY = maxY = ys[0];
+                i = 1;
+            }
+            for (; i < end; i++) {
+                float x = xs[i];
+                float y = ys[i];
+                if (x < minX) minX = x;
+                if (x > maxX) maxX = x;
+                if (y < minY) minY = y;
+                if (y > maxY) maxY = y;
+            }
+        }
+        for (int i = Math.max(1, size); i < end && sortedX; i++) {
+            if (xs[i] < xs[i - 1]) {
+                sortedX = false;
+            }
+        }
+        size = end;
+        onAppended(length);
+    }
+
+    private void includeInBounds(float x, float y) {
+        if (size == 1) {
+            minX = maxX = x;
+            minY = maxY = y;
+            return;
+        }
+        if (x < minX) minX = x;
+        if (x > maxX) maxX = x;
+        if (y < minY) minY = y;
+        if (y > maxY) maxY = y;
+    }
+
+    private void validateBounds() {
+        if (boundsValid) {
+            return;
+        }
+        if (size > 0) {
+            minX = maxX = xs[0];
+            minY = maxY = ys[0];
+            for (int i = 1; i < size; i++) {
+                float x = xs[i];
+                float y = ys[i];
+                if (x < minX) minX = x;
+                if (x > maxX) maxX = x;
+                if (y < minY) minY = y;
+                if (y > maxY) maxY = y;
+            }
+        }
+        boundsValid = true;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= xs.length) {
+            return;
+        }
+        int newCapacity = Math.max(capacity, xs.length * 2);
+        xs = grow(xs, newCapacity);
+        ys = grow(ys, newCapacity);
+        if (labels != null) {
+            String[] newLabels = new String[newCapacity];
+            System.arraycopy(labels, 0, newLabels, 0, size);
+            labels = newLabels;
+        }
+    }
+
+    private float[] grow(float[] array, int capacity) {
+        float[] newArray = new float[capacity];
+        System.arraycopy(array, 0, newArray, 0, size);
+        return newArray;
     }
 
-    public boolean isShowingPoints() {
-        return showPoints;
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Invalid index " + index + ", size is " + size);
+        }
     }
 
-    public void setShowingPoints(boolean showPoints) {
-        this.showPoints = showPoints;
+    void invalidatePointsView() {
+        if (pointsView == null) {
+            return;
+        }
+        // Detach the old view so that points kept by callers keep their last values.
+        for (LinePoint point : pointsView) {
+            point.detach();
+        }
+        pointsView = null;
+        readOnlyPointsView = null;
     }
 
 }
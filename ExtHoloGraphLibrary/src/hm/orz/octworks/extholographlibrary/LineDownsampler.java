@@ -0,0 +1,218 @@
+package hm.orz.octworks.extholographlibrary;
+
+/**
+ * Reduces a line to the indices worth drawing and caches the result
+ * until the line or the requested resolution changes.
+ */
+class LineDownsampler {
+
+    private static final int LTTB_POINTS_PER_PIXEL = 2;
+
+    private final AbstractLine line;
+
+    private int[] indices = new int[0];
+    private int count = 0;
+
+    private int cachedMode = AbstractLine.DOWNSAMPLE_NONE;
+    private int cachedModCount = -1;
+    private int cachedWidth = -1;
+    private float cachedMinX, cachedMaxX;
+    private int cachedFrom = -1, cachedTo = -1;
+
+    LineDownsampler(AbstractLine line) {
+        this.line = line;
+    }
+
+    int[] getIndices() {
+        return indices;
+    }
+
+    /**
+     * Downsamples the points {@code from} to {@code to} (exclusive) of the line for a plot area
+     * {@code width} pixels wide spanning {@code minX} to {@code maxX}.
+     *
+     * @return the number of valid entries in {@link #getIndices()}
+     */
+    int downsample(int mode, int width, float minX, float maxX, int from, int to) {
+        if (isCached(mode, width, minX, maxX, from, to)) {
+            return count;
+        }
+
+        switch (mode) {
+            case AbstractLine.DOWNSAMPLE_LTTB:
+                int threshold = width * LTTB_POINTS_PER_PIXEL;
+                ensureCapacity(Math.max(threshold, to - from));
+                count = largestTriangleThreeBuckets(line, from, to, threshold, indices);
+                break;
+            case AbstractLine.DOWNSAMPLE_MIN_MAX:
+                count = minMaxPerColumn(width, minX, maxX, from, to);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown downsample mode " + mode);
+        }
+
+        cachedMode = mode;
+        cachedWidth = width;
+        cachedMinX = minX;
+        cachedMaxX = maxX;
+        cachedFrom = from;
+        cachedTo = to;
+        cachedModCount = line.getModCount();
+        return count;
+    }
+
+    private boolean isCached(int mode, int width, float minX, float maxX, int from, int to) {
+        if (mode != cachedMode || width != cachedWidth || line.getModCount() != cachedModCount
+                || from != cachedFrom || to != cachedTo) {
+            return false;
+        }
+        // LTTB does not depend on the projection, only on the number of points to keep.
+        return mode != AbstractLine.DOWNSAMPLE_MIN_MAX || (minX == cachedMinX && maxX == cachedMaxX);
+    }
+
+    /**
+     * M4 aggregation: for every run of points falling into the same pixel column keeps the
+     * first, minimum, maximum and last point. Drawn as a polyline this gives the same pixels as
+     * drawing every point, with at most four points per column for lines sorted by x.
+     */
+    private int minMaxPerColumn(int width, float minX, float maxX, int from, int to) {
+        float columnsPerUnit = width / (maxX - minX);
+        // With a pyramid the runs of a sorted line are found by binary search and their
+        // extremes from the pyramid, so the cost depends on the width rather than on the size.
+        boolean indexed = line.isPyramidEnabled() && line.isSortedByX();
+        int kept = 0;
+
+        int i = from;
+        while (i < to) {
+            int column = columnOf(line.getX(i), minX, columnsPerUnit);
+            int first = i;
+            int min = i;
+            int max = i;
+
+            if (indexed) {
+                i = endOfColumn(column, i + 1, to, minX, columnsPerUnit);
+                min = line.indexOfMinY(first, i);
+                max = line.indexOfMaxY(first, i);
+            } else {
+                float minY = line.getY(i);
+                float maxY = minY;
+
+                i++;
+                while (i < to && columnOf(line.getX(i), minX, columnsPerUnit) == column) {
+                    float y = line.getY(i);
+                    if (y < minY) {
+                        minY = y;
+                        min = i;
+                    } else if (y > maxY) {
+                        maxY = y;
+                        max = i;
+                    }
+                    i++;
+                }
+            }
+            int last = i - 1;
+
+            ensureCapacity(kept + 4);
+            indices[kept++] = first;
+            // min and max in index order, skipping duplicates of first/last
+            int lower = Math.min(min, max);
+            int upper = Math.max(min, max);
+            if (lower != first && lower != last) {
+                indices[kept++] = lower;
+            }
+            if (upper != lower && upper != first && upper != last) {
+                indices[kept++] = upper;
+            }
+            if (last != first) {
+                indices[kept++] = last;
+            }
+        }
+        return kept;
+    }
+
+    private static int columnOf(float x, float minX, float columnsPerUnit) {
+        return (int) Math.floor((x - minX) * columnsPerUnit);
+    }
+
+    /**
+     * Returns the first index in [from, to) of a sorted line that falls right of {@code column},
+     * or {@code to}.
+     */
+    private int endOfColumn(int column, int from, int to, float minX, float columnsPerUnit) {
+        int low = from, high = to;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (columnOf(line.getX(middle), minX, columnsPerUnit) <= column) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (indices.length >= capacity) {
+            return;
+        }
+        int[] newIndices = new int[Math.max(capacity, indices.length * 2)];
+        System.arraycopy(indices, 0, newIndices, 0, indices.length);
+        indices = newIndices;
+    }
+
+    /**
+     * Largest-Triangle-Three-Buckets: keeps the first and last point and, for every bucket in
+     * between, the point forming the largest triangle with the previously kept point and the
+     * average of the next bucket.
+     */
+    static int largestTriangleThreeBuckets(AbstractLine line, int from, int to, int threshold, int[] out) {
+        int size = to - from;
+        if (threshold >= size || threshold < 3) {
+            for (int i = 0; i < size; i++) {
+                out[i] = from + i;
+            }
+            return size;
+        }
+
+        // bucket positions are relative to from, indices kept are absolute
+        double every = (double) (size - 2) / (threshold - 2);
+        int count = 0;
+        int a = from;
+        out[count++] = a;
+
+        for (int i = 0; i < threshold - 2; i++) {
+            // Average point of the next bucket
+            int avgStart = from + (int) Math.floor((i + 1) * every) + 1;
+            int avgEnd = from + Math.min((int) Math.floor((i + 2) * every) + 1, size);
+            double avgX = 0, avgY = 0;
+            for (int j = avgStart; j < avgEnd; j++) {
+                avgX += line.getX(j);
+                avgY += line.getY(j);
+            }
+            int avgLength = avgEnd - avgStart;
+            avgX /= avgLength;
+            avgY /= avgLength;
+
+            // Point of the current bucket with the largest triangle area
+            int rangeStart = from + (int) Math.floor(i * every) + 1;
+            int rangeEnd = from + (int) Math.floor((i + 1) * every) + 1;
+            double ax = line.getX(a);
+            double ay = line.getY(a);
+            double maxArea = -1;
+            int next = rangeStart;
+            for (int j = rangeStart; j < rangeEnd; j++) {
+                double area = Math.abs((ax - avgX) * (line.getY(j) - ay) - (ax - line.getX(j)) * (avgY - ay));
+                if (area > maxArea) {
+                    maxArea = area;
+                    next = j;
+                }
+            }
+
+            out[count++] = next;
+            a = next;
+        }
+
+        out[count++] = to - 1;
+        return count;
+    }
+}
@@ -25,21 +25,23 @@ package hm.orz.octworks.extholographlibrary;
 
 import android.content.Context;
 import android.graphics.Canvas;
-import android.graphics.Color;
-import android.graphics.Paint;
 import android.graphics.Path;
-import android.graphics.PorterDuff;
-import android.graphics.PorterDuffXfermode;
 import android.util.AttributeSet;
 
+import java.util.ArrayList;
+
 public class LineGraph extends AbstractLineGraph {
 
-    private Paint paint = new Paint();
     private float minY = 0, minX = 0;
     private float maxY = 0, maxX = 0;
     private boolean isRangeYSet = false;
     private boolean isRangeXSet = false;
-    private int lineToFill = -1;
+
+    // area under the filled line, kept until the line or the transform changes
+    private final Path fillPath = new Path();
+    private AbstractLine fillLine;
+    private int fillModCount;
+    private float fillScaleX, fillOffsetX, fillScaleY, fillOffsetY, fillBottom;
 
 
     public LineGraph(Context context) {
@@ -50,15 +52,6 @@ public class LineGraph extends AbstractLineGraph {
         super(context, attrs);
     }
 
-    public int getLineToFill() {
-        return lineToFill;
-    }
-
-    public void setLineToFill(int indexOfLine) {
-        this.lineToFill = indexOfLine;
-        update();
-    }
-
     public void setRangeY(float min, float max) {
         minY = min;
         maxY = max;
@@ -74,16 +67,13 @@ public class LineGraph extends AbstractLineGraph {
     public float getMaxY() {
         if (isRangeYSet) return maxY;
 
-        for (Line line : getLines()) {
-            for (LinePoint point : line.getPoints()) {
-                maxY = point.getY();
-                break;
-            }
-        }
-        for (Line line : getLines()) {
-            for (LinePoint point : line.getPoints()) {
-                if (point.getY() > maxY) maxY = point.getY();
-            }
+        boolean first = true;
+        ArrayList<AbstractLine> lines = getLines();
+        for (int i = 0; i < lines.size(); i++) {
+            AbstractLine line = lines.get(i);
+            if (line.getSize() == 0) continue;
+            if (first || line.getMaxY() > maxY) maxY = line.getMaxY();
+            first = false;
         }
         return maxY;
 
@@ -92,16 +82,13 @@ public class LineGraph extends AbstractLineGraph {
     public float getMinY() {
         if (isRangeYSet) return minY;
 
-        for (Line line : getLines()) {
-            for (LinePoint point : line.getPoints()) {
-                minY = point.getY();
-                break;
-            }
-        }
-        for (Line line : getLines()) {
-            for (LinePoint point : line.getPoints()) {
-                if (point.getY() < minY) minY = point.getY();
-            }
+        boolean first = true;
+        ArrayList<AbstractLine> lines = getLines();
+        for (int i = 0; i < lines.size(); i++) {
+            AbstractLine line = lines.get(i);
+            if (line.getSize() == 0) continue;
+            if (first || line.getMinY() < minY) minY = line.getMinY();
+            first = false;
         }
         return minY;
     }
@@ -109,16 +96,13 @@ public class LineGraph extends AbstractLineGraph {
     public float getMaxX() {
         if (isRangeXSet) return maxX;
 
-        for (Line line : getLines()) {
-            for (LinePoint point : line.getPoints()) {
-                maxX = point.getX();
-                break;
-            }
-        }
-        for (Line line : getLines()) {
-            for (LinePoint point : line.getPoints()) {
-                if (point.getX() > maxX) maxX = point.getX();
-            }
+        boolean first = true;
+        ArrayList<AbstractLine> lines = getLines();
+        for (int i = 0; i < lines.size(); i++) {
+            AbstractLine line = lines.get(i);
+            if (line.getSize() == 0) continue;
+            if (first || line.getMaxX() > maxX) maxX = line.getMaxX();
+            first = false;
         }
         return maxX;
 
@@ -127,92 +111,115 @@ public class LineGraph extends AbstractLineGraph {
     public float getMinX() {
         if (isRangeXSet) return minX;
 
-        for (Line line : getLines()) {
-            for (LinePoint point : line.getPoints()) {
-                minX = point.getX();
-                break;
-            }
-        }
-        for (Line line : getLines()) {
-            for (LinePoint point : line.getPoints()) {
-                if (point.getX() < minX) minX = point.getX();
-            }
+        boolean first = true;
+        ArrayList<AbstractLine> lines = getLines();
+        for (int i = 0; i < lines.size(); i++) {
+            AbstractLine line = lines.get(i);
+            if (line.getSize() == 0) continue;
+            if (first || line.getMinX() < minX) minX = line.getMinX();
+            first = false;
         }
         return minX;
     }
 
+    @Override
+    void writeState(GraphState state) {
+        super.writeState(state);
+        state.putBoolean(isRangeXSet);
+        state.putFloat(minX);
+        state.putFloat(maxX);
+        state.putBoolean(isRangeYSet);
+        state.putFloat(minY);
+        state.putFloat(maxY);
+        ArrayList<AbstractLine> lines = getLines();
+        state.putInt(lines.size());
+        for (int i = 0; i < lines.size(); i++) {
+            lines.get(i).writeState(state);
+        }
+    }
+
+    @Override
+    void readState(GraphState state) {
+        super.readState(state);
+        isRangeXSet = state.getBoolean();
+        minX = state.getFloat();
+        maxX = state.getFloat();
+        isRangeYSet = state.getBoolean();
+        minY = state.getFloat();
+        maxY = state.getFloat();
+        int count = state.getInt();
+        ArrayList<AbstractLine> lines = new ArrayList<AbstractLine>(count);
+        for (int i = 0; i < count; i++) {
+            lines.add(AbstractLine.readState(state));
+        }
+        setLines(lines);
+    }
+
     protected void onPreDrawGraph(Canvas canvas, float topPadding, float bottomPadding, float leftPadding, float rightPadding) {
-        if (getLines().size() <= 0) {
+        ArrayList<AbstractLine> lines = getRenderLines();
+        int lineToFill = getRenderLineToFill();
+        if (lineToFill < 0 || lineToFill >= lines.size()) {
+            return;
+        }
+        AbstractLine line = lines.get(lineToFill);
+        if (line.getSize() == 0) {
             return;
         }
 
-        // draw graph area
-        paint.reset();
-        Path path = new Path();
-
-        int lineCount = 0;
-        for (Line line : getLines()) {
-            int count = 0;
-            float lastXPixels = 0, newYPixels;
-            float lastYPixels = 0, newXPixels;
-
-            if (lineCount == lineToFill) {
-                paint.setColor(Color.BLACK);
-                paint.setAlpha(30);
-                paint.setStrokeWidth(2);
-                for (int i = (int) convertToPx(5, DP); i - canvas.getWidth() < canvas.getHeight(); i += convertToPx(10, DP)) {
-                    canvas.drawLine(i, canvas.getHeight(), 0, canvas.getHeight() - i, paint);
-                }
-
-                paint.reset();
-
-                paint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.CLEAR));
-                for (LinePoint p : line.getPoints()) {
-                    float yPercent = (p.getY() - getMinY()) / (getMaxY() - getMinY());
-                    float xPercent = (p.getX() - getMinX()) / (getMaxX() - getMinX());
-                    if (count == 0) {
-                        lastXPixels = xPercent * canvas.getWidth();
-                        lastYPixels = canvas.getHeight() - (canvas.getHeight() * yPercent);
-                        path.moveTo(lastXPixels, lastYPixels);
-                    } else {
-                        newXPixels = xPercent * canvas.getWidth();
-                        newYPixels = canvas.getHeight() - (canvas.getHeight() * yPercent);
-                        path.lineTo(newXPixels, newYPixels);
-                        Path pa = new Path();
-                        pa.moveTo(lastXPixels, lastYPixels);
-                        pa.lineTo(newXPixels, newYPixels);
-                        pa.lineTo(newXPixels, 0);
-                        pa.lineTo(lastXPixels, 0);
-                        pa.close();
-                        canvas.drawPath(pa, paint);
-                        lastXPixels = newXPixels;
-                        lastYPixels = newYPixels;
-                    }
-                    count++;
-                }
-
-                path.reset();
-
-                path.moveTo(0, canvas.getHeight() - bottomPadding);
-                path.lineTo(leftPadding, canvas.getHeight() - bottomPadding);
-                path.lineTo(leftPadding, 0);
-                path.lineTo(0, 0);
-                path.close();
-                canvas.drawPath(path, paint);
-
-                path.reset();
-
-                path.moveTo(canvas.getWidth(), canvas.getHeight() - bottomPadding);
-                path.lineTo(canvas.getWidth() - leftPadding, canvas.getHeight() - bottomPadding);
-                path.lineTo(canvas.getWidth() - leftPadding, 0);
-                path.lineTo(canvas.getWidth(), 0);
-                path.close();
-
-                canvas.drawPath(path, paint);
-            }
+        ViewportTransform transform = getViewportTransform();
+        updateFillPath(line, transform);
+
+        // hatch the area under the line, clipped to the plot
+        canvas.save();
+        canvas.clipRect(transform.getLeft(), transform.getTop(), transform.getRight(), transform.getBottom());
+        canvas.drawPath(fillPath, getHatchPaint());
+        canvas.restore();
+    }
 
-            lineCount++;
+    /**
+     * Rebuilds the closed area between the filled line and the x axis, in screen coordinates,
+     * unless neither the line nor the transform changed since it was last built.
+     */
+    private void updateFillPath(AbstractLine line, ViewportTransform transform) {
+        if (line == fillLine && line.getModCount() == fillModCount
+                && transform.getScaleX() == fillScaleX && transform.getOffsetX() == fillOffsetX
+                && transform.getScaleY() == fillScaleY && transform.getOffsetY() == fillOffsetY
+                && transform.getBottom() == fillBottom) {
+            return;
+        }
+
+        // only the visible part of a sorted line, plus a neighbour on each side
+        int from = 0;
+        int to = line.getSize();
+        if (line.isSortedByX()) {
+            from = Math.max(0, line.lowerBoundX(transform.getMinX()) - 1);
+            to = Math.min(line.getSize(), line.upperBoundX(transform.getMaxX()) + 1);
         }
+
+        fillPath.reset();
+        if (from < to) {
+            float bottom = transform.getBottom();
+            fillPath.moveTo(transform.toScreenX(line.getX(from)), bottom);
+            for (int i = from; i < to; i++) {
+                fillPath.lineTo(transform.toScreenX(line.getX(i)), transform.toScreenY(line.getY(i)));
+            }
+            fillPath.lineTo(transform.toScreenX(line.getX(to - 1)), bottom);
+            fillPath.close();
+        }
+
+        fillLine = line;
+        fillModCount = line.getModCount();
+        fillScaleX = transform.getScaleX();
+        fillOffsetX = transform.getOffsetX();
+        fillScaleY = transform.getScaleY();
+        fillOffsetY = transform.getOffsetY();
+        fillBottom = transform.getBottom();
+    }
+
+    @Override
+    protected boolean supportsIncrementalRendering() {
+        // the fill is laid out over the whole canvas
+        return getRenderLineToFill() < 0;
     }
 
     protected void onPostDrawGraph(Canvas canvas, float topPadding, float bottomPadding, float leftPadding, float rightPadding) {
@@ -35,6 +35,11 @@ public class LinePoint {
 	private Path path;
 	private Region region;
 	private String label_string; 
+
+	// Set while this point is an element of Line#getPoints(); accessors then go to the line's columns.
+	private Line owner;
+	private int index;
+
 	public LinePoint(float x, float y) {
 		super();
 		this.x = x;
@@ -43,46 +48,77 @@ public class LinePoint {
 
     public LinePoint() { }
 
+	LinePoint(Line owner, int index) {
+		this.owner = owner;
+		this.index = index;
+	}
+
 	public float getX() {
-		return x;
+		return owner != null ? owner.getX(index) : x;
 	}
 
 	public void setX(float x) {
-		this.x = x;
+		if (owner != null) {
+			owner.setX(index, x);
+		} else {
+			this.x = x;
+		}
 	}
 
 	public float getY() {
-		return y;
+		return owner != null ? owner.getY(index) : y;
 	}
 
 	public void setY(float y) {
-		this.y = y;
+		if (owner != null) {
+			owner.setY(index, y);
+		} else {
+			this.y = y;
+		}
 	}
 
+	/**
+	 * @deprecated Graphs no longer record a hit region per point.
+	 */
+	@Deprecated
 	public Region getRegion() {
 		return region;
 	}
 
+	@Deprecated
 	public void setRegion(Region region) {
 		this.region = region;
 	}
 
+	/**
+	 * @deprecated Graphs no longer record a hit path per point.
+	 */
+	@Deprecated
 	public Path getPath() {
 		return path;
 	}
 
+	@Deprecated
 	public void setPath(Path path) {
 		this.path = path;
 	}
 	
 	public String getLabel_string() {
-		return label_string;
+		return owner != null ? owner.getLabel(index) : label_string;
 	}
 
 	public void setLabel_string(String label_string) {
-		this.label_string = label_string;
+		if (owner != null) {
+			owner.setLabel(index, label_string);
+		} else {
+			this.label_string = label_string;
+		}
 	}
 
+    /**
+     * @deprecated Hit-testing is done by the graph on the rendered marker positions.
+     */
+    @Deprecated
     public boolean isOnPoint(float x, float y) {
         if (getPath() != null && getRegion() != null) {
             Region r = new Region();
@@ -92,4 +128,14 @@ public class LinePoint {
         return false;
     }
 
+    void detach() {
+        if (owner == null) {
+            return;
+        }
+        x = owner.getX(index);
+        y = owner.getY(index);
+        label_string = owner.getLabel(index);
+        owner = null;
+    }
+
 }
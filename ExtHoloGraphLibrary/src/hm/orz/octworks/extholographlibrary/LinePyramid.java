@@ -0,0 +1,220 @@
+package hm.orz.octworks.extholographlibrary;
+
+/**
+ * Min/max pyramid over the y values of a line. Level 0 holds the extremes of blocks of
+ * {@link #BLOCK_SIZE} points and every level above merges pairs of nodes of the level below, so
+ * the extremes of any index range are found by looking at O(log N) nodes, like in a segment
+ * tree. Appended points are merged in as they are found, other edits rebuild the pyramid on the
+ * next query.
+ * <p>
+ * Nodes are laid out by the position of a point since the last build rather than by its index,
+ * so that points evicted from the front of a {@link StreamingLine} just leave nodes behind
+ * that no query reaches anymore. The pyramid is rebuilt once there are as many of those points
+ * as live ones, which keeps both the memory and the amortized cost per eviction bounded.
+ */
+class LinePyramid {
+
+    static final int BLOCK_SIZE = 16;
+
+    private final AbstractLine line;
+
+    private Level[] levels = new Level[0];
+    private int levelCount = 0;
+
+    // position of the point at index 0, i.e. the number of points evicted since the last build
+    private int offset = 0;
+    // position after the last point merged in
+    private int builtEnd = 0;
+    private long builtAppendCount = 0;
+    private int builtEditCount = -1;
+    private int buildCount = 0;
+
+    LinePyramid(AbstractLine line) {
+        this.line = line;
+    }
+
+    /**
+     * Returns the index of the smallest (or largest) y among the points {@code from} to
+     * {@code to} (exclusive), which must not be empty. Synchronized since immutable lines are
+     * queried from the UI and render threads at once.
+     */
+    synchronized int indexOfExtreme(int from, int to, boolean min) {
+        ensureUpToDate();
+
+        // positions from here on
+        from += offset;
+        to += offset;
+        int best = from;
+        float bestValue = line.getY(from - offset);
+
+        // loose points up to the first and from the last block boundary
+        int i = from;
+        while (i < to && i % BLOCK_SIZE != 0) {
+            float y = line.getY(i - offset);
+            if (min ? y < bestValue : y > bestValue) {
+                best = i;
+                bestValue = y;
+            }
+            i++;
+        }
+        int j = to;
+        while (j > i && j % BLOCK_SIZE != 0) {
+            j--;
+            float y = line.getY(j - offset);
+            if (min ? y < bestValue : y > bestValue) {
+                best = j;
+                bestValue = y;
+            }
+        }
+
+        // whole blocks in between, bottom-up over the levels
+        int low = i / BLOCK_SIZE;
+        int high = j / BLOCK_SIZE;
+        for (int level = 0; low < high; level++) {
+            Level nodes = levels[level];
+            if ((low & 1) != 0) {
+                if (min ? nodes.min[low] < bestValue : nodes.max[low] > bestValue) {
+                    best = min ? nodes.minIndex[low] : nodes.maxIndex[low];
+                    bestValue = min ? nodes.min[low] : nodes.max[low];
+                }
+                low++;
+            }
+            if ((high & 1) != 0) {
+                high--;
+                if (min ? nodes.min[high] < bestValue : nodes.max[high] > bestValue) {
+                    best = min ? nodes.minIndex[high] : nodes.maxIndex[high];
+                    bestValue = min ? nodes.min[high] : nodes.max[high];
+                }
+            }
+            low >>= 1;
+            high >>= 1;
+        }
+        return best - offset;
+    }
+
+    private void ensureUpToDate() {
+        int size = line.getSize();
+        long appended = line.getAppendCount() - builtAppendCount;
+        // points dropped from the front since the last query
+        long evicted = builtEnd - offset + appended - size;
+        if (line.getEditCount() != builtEditCount || evicted < 0 || offset + evicted > builtEnd
+                || offset + evicted >= size) {
+            // something else than appends and evictions happened, points were evicted before
+            // they were merged in, or the evicted ones outnumber the live ones
+            for (int level = 0; level < levelCount; level++) {
+                levels[level].count = 0;
+            }
+            levelCount = 0;
+            offset = 0;
+            builtEnd = 0;
+            buildCount++;
+        } else {
+            offset += (int) evicted;
+        }
+
+        for (int position = builtEnd; position < offset + size; position++) {
+            append(position, line.getY(position - offset));
+        }
+        builtEnd = offset + size;
+        builtAppendCount = line.getAppendCount();
+        builtEditCount = line.getEditCount();
+    }
+
+    /**
+     * Returns how many times the pyramid was built from scratch so far.
+     */
+    int getBuildCount() {
+        return buildCount;
+    }
+
+    private void append(int position, float y) {
+        if (levelCount == 0) {
+            addLevel();
+        }
+
+        int node = position / BLOCK_SIZE;
+        boolean opens = position % BLOCK_SIZE == 0;
+        for (int level = 0; level < levelCount; level++) {
+            Level nodes = levels[level];
+            if (opens) {
+                nodes.open(y, position);
+            } else {
+                nodes.include(node, y, position);
+            }
+            // an even node opening also opens its parent
+            opens = opens && (node & 1) == 0;
+            node >>= 1;
+        }
+
+        // the top level just got its second node: put a root above the two
+        Level top = levels[levelCount - 1];
+        if (top.count == 2) {
+            Level root = addLevel();
+            root.open(top.min[0], top.minIndex[0]);
+            root.max[0] = top.max[0];
+            root.maxIndex[0] = top.maxIndex[0];
+            root.include(0, top.min[1], top.minIndex[1]);
+            root.include(0, top.max[1], top.maxIndex[1]);
+        }
+    }
+
+    private Level addLevel() {
+        if (levelCount == levels.length) {
+            Level[] newLevels = new Level[levelCount + 4];
+            System.arraycopy(levels, 0, newLevels, 0, levelCount);
+            levels = newLevels;
+        }
+        if (levels[levelCount] == null) {
+            levels[levelCount] = new Level();
+        }
+        Level level = levels[levelCount++];
+        level.count = 0;
+        return level;
+    }
+
+    private static class Level {
+        float[] min = new float[4];
+        float[] max = new float[4];
+        int[] minIndex = new int[4];
+        int[] maxIndex = new int[4];
+        int count = 0;
+
+        void open(float y, int index) {
+            if (count == min.length) {
+                int capacity = count * 2;
+                min = grow(min, capacity);
+                max = grow(max, capacity);
+                minIndex = grow(minIndex, capacity);
+                maxIndex = grow(maxIndex, capacity);
+            }
+            min[count] = y;
+            max[count] = y;
+            minIndex[count] = index;
+            maxIndex[count] = index;
+            count++;
+        }
+
+        void include(int node, float y, int index) {
+            if (y < min[node]) {
+                min[node] = y;
+                minIndex[node] = index;
+            }
+            if (y > max[node]) {
+                max[node] = y;
+                maxIndex[node] = index;
+            }
+        }
+
+        private static float[] grow(float[] array, int capacity) {
+            float[] newArray = new float[capacity];
+            System.arraycopy(array, 0, newArray, 0, array.length);
+            return newArray;
+        }
+
+        private static int[] grow(int[] array, int capacity) {
+            int[] newArray = new int[capacity];
+            System.arraycopy(array, 0, newArray, 0, array.length);
+            return newArray;
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package hm.orz.octworks.extholographlibrary;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A read-only line reading its points straight from a memory-mapped {@link SeriesFile}, so
+ * that only the pages the graph touches are loaded. Bounds and sortedness come from the file
+ * header, the visible part of sorted series is found by binary search and, when the file is
+ * indexed, range extremes are found from the block index.
+ * <p>
+ * Background renderers share the line with the UI thread rather than copying it, so it is
+ * never read as a whole either.
+ */
+public class MappedLine extends AbstractLine {
+
+    private final File file;
+    private final ByteBuffer buffer;
+    private final boolean longX;
+    private final boolean sorted;
+    private final int size;
+    // 0 when the file has no index
+    private final int blockSize;
+    private final long xOrigin;
+    private final float minX, maxX, minY, maxY;
+
+    private final int xColumn;
+    private final int yColumn;
+    private final int indexColumn;
+
+    MappedLine(File file, ByteBuffer buffer, int flags, int size, int blockSize) {
+        this.file = file;
+        this.buffer = buffer;
+        this.longX = (flags & SeriesFile.FLAG_LONG_X) != 0;
+        this.sorted = (flags & SeriesFile.FLAG_SORTED) != 0;
+        this.size = size;
+        this.blockSize = (flags & SeriesFile.FLAG_INDEXED) != 0 ? blockSize : 0;
+        minX = buffer.getFloat(20);
+        maxX = buffer.getFloat(24);
+        minY = buffer.getFloat(28);
+        maxY = buffer.getFloat(32);
+        xOrigin = buffer.getLong(40);
+
+        xColumn = SeriesFile.HEADER_SIZE;
+        yColumn = xColumn + size * (longX ? 8 : 4);
+        indexColumn = yColumn + size * 4;
+    }
+
+    /**
+     * Returns the value subtracted from the x values of a series written with long x values,
+     * which is its first x, or 0 for float x values.
+     */
+    public long getXOrigin() {
+        return xOrigin;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Saves the path of the file rather than the points, which are mapped again on restore.
+     */
+    @Override
+    void writeState(GraphState state) {
+        state.putInt(STATE_MAPPED);
+        state.putString(file.getPath());
+        writeStyle(state);
+    }
+
+    static AbstractLine readMappedState(GraphState state) {
+        AbstractLine line;
+        try {
+            line = SeriesFile.open(new File(state.getString()));
+        } catch (IOException e) {
+            // the recording is gone, keep the style at least
+            line = new Line();
+        }
+        line.readStyle(state);
+        return line;
+    }
+
+    @Override
+    public float getX(int index) {
+        checkIndex(index);
+        if (longX) {
+            return (float) (buffer.getLong(xColumn + index * 8) - xOrigin);
+        }
+        return buffer.getFloat(xColumn + index * 4);
+    }
+
+    @Override
+    public float getY(int index) {
+        checkIndex(index);
+        return buffer.getFloat(yColumn + index * 4);
+    }
+
+    @Override
+    public String getLabel(int index) {
+        checkIndex(index);
+        return null;
+    }
+
+    @Override
+    public int getSize() {
+        return size;
+    }
+
+    @Override
+    public boolean isSortedByX() {
+        return sorted;
+    }
+
+    @Override
+    public float getMinX() {
+        return minX;
+    }
+
+    @Override
+    public float getMaxX() {
+        return maxX;
+    }
+
+    @Override
+    public float getMinY() {
+        return minY;
+    }
+
+    @Override
+    public float getMaxY() {
+        return maxY;
+    }
+
+    @Override
+    boolean isImmutable() {
+        return true;
+    }
+
+    @Override
+    public boolean isPyramidEnabled() {
+        // the block index lets min/max downsampling skip whole blocks just like a pyramid
+        return blockSize > 0 || super.isPyramidEnabled();
+    }
+
+    @Override
+    int indexOfMinY(int from, int to) {
+        return blockSize > 0 ? indexOfExtreme(from, to, true) : super.indexOfMinY(from, to);
+    }
+
+    @Override
+    int indexOfMaxY(int from, int to) {
+        return blockSize > 0 ? indexOfExtreme(from, to, false) : super.indexOfMaxY(from, to);
+    }
+
+    private int indexOfExtreme(int from, int to, boolean min) {
+        int firstBlock = (from + blockSize - 1) / blockSize;
+        int endBlock = to / blockSize;
+        if (firstBlock >= endBlock) {
+            return scanExtreme(from, to, from, min);
+        }
+
+        // loose points before the first and after the last whole block
+        int best = scanExtreme(from, firstBlock * blockSize, from, min);
+        best = scanExtreme(endBlock * blockSize, to, best, min);
+
+        float bestValue = getY(best);
+        int bestBlock = -1;
+        for (int block = firstBlock; block < endBlock; block++) {
+            float value = buffer.getFloat(indexColumn + block * 8 + (min ? 0 : 4));
+            if (min ? value < bestValue : value > bestValue) {
+                bestBlock = block;
+                bestValue = value;
+            }
+        }
+        if (bestBlock < 0) {
+            return best;
+        }
+        int start = bestBlock * blockSize;
+        return scanExtreme(start, start + blockSize, start, min);
+    }
+
+    private int scanExtreme(int from, int to, int best, boolean min) {
+        float bestValue = getY(best);
+        for (int i = from; i < to; i++) {
+            float y = getY(i);
+            if (min ? y < bestValue : y > bestValue) {
+                best = i;
+                bestValue = y;
+            }
+        }
+        return best;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Invalid index " + index + ", size is " + size);
+        }
+    }
+}
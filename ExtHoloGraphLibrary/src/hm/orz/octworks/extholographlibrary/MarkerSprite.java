@@ -0,0 +1,55 @@
+package hm.orz.octworks.extholographlibrary;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+
+/**
+ * Point markers rendered once per screen density and color and shared by every graph, which
+ * stamps them with {@link Canvas#drawBitmap(Bitmap, float, float, Paint)} instead of drawing
+ * two circles per point. Sprites are square with an even size, their center being at
+ * {@link #getCenter(Bitmap)} in both directions.
+ */
+class MarkerSprite {
+
+    // radii of the colored disc and of the white dot in it, in dp
+    static final int RADIUS = 6;
+    static final int INNER_RADIUS = 3;
+
+    private static final BitmapCache sprites = new BitmapCache() {
+        @Override
+        Bitmap create(float density, int color) {
+            return createSprite(RADIUS * density, INNER_RADIUS * density, color);
+        }
+    };
+
+    private MarkerSprite() {
+    }
+
+    /**
+     * Returns the marker for the given density and color, rendering it on first use. Safe to
+     * call from render threads.
+     */
+    static Bitmap getSprite(float density, int color) {
+        return sprites.get(density, color);
+    }
+
+    static int getCenter(Bitmap sprite) {
+        return sprite.getWidth() / 2;
+    }
+
+    private static Bitmap createSprite(float radius, float innerRadius, int color) {
+        // a pixel of margin around the disc for the anti-aliased edge
+        int center = (int) Math.ceil(radius) + 1;
+        Bitmap sprite = Bitmap.createBitmap(center * 2, center * 2, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(sprite);
+        Paint paint = new Paint();
+        paint.setAntiAlias(true);
+        paint.setColor(color);
+        canvas.drawCircle(center, center, radius, paint);
+        paint.setColor(Color.WHITE);
+        canvas.drawCircle(center, center, innerRadius, paint);
+        return sprite;
+    }
+}
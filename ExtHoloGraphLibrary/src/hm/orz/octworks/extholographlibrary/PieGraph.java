@@ -29,7 +29,6 @@ import android.graphics.Color;
 import android.graphics.Paint;
 import android.graphics.Path;
 import android.graphics.Path.Direction;
-import android.graphics.Point;
 import android.graphics.RectF;
 import android.graphics.Region;
 import android.util.AttributeSet;
@@ -38,9 +37,16 @@ import android.view.MotionEvent;
 import java.util.ArrayList;
 
 public class PieGraph extends Graph {
+    private static final int SELECTED_COLOR = 0xff33b5e5;
+
     private ArrayList<PieSlice> slices = new ArrayList<PieSlice>();
     private Paint paint = new Paint();
     private Path path = new Path();
+    // scratch objects reused by every draw and touch
+    private final RectF arcBounds = new RectF();
+    private final Region touchRegion = new Region();
+    // how far the pie was shifted right to center it next to the key in the last draw
+    private float keyShift = 0;
     private Paint textPaint = new Paint();
     private boolean showKey = true;
 
@@ -85,7 +91,8 @@ public class PieGraph extends Graph {
         innerRadius = radius - thickness;
 
         float size = 0;
-        for (PieSlice slice : slices) {
+        for (int i = 0; i < slices.size(); i++) {
+            PieSlice slice = slices.get(i);
             // Calculate the total value of the pie chart
             totalValue += slice.getValue();
 
@@ -94,30 +101,41 @@ public class PieGraph extends Graph {
         }
 
         // Translate the canvas so everything is centered
+        keyShift = showKey ? size / 2 : 0;
         if (showKey) canvas.translate(size / 2, 0);
 
-        int count = 0;
-        for (PieSlice slice : slices) {
-            // Draw the slice
-            Path p = new Path();
+        for (int count = 0; count < slices.size(); count++) {
+            PieSlice slice = slices.get(count);
+            // Draw the slice, into the path and region it kept from the last draw
+            if (slice.getPath() == null) {
+                slice.setPath(new Path());
+            }
+            if (slice.getRegion() == null) {
+                slice.setRegion(new Region());
+            }
+            Path p = slice.getPath();
+            p.reset();
             paint.setColor(slice.getColor() == -1 ? DEFAULT_COLORS.get(count % DEFAULT_COLORS.size()) : slice.getColor());
             currentSweep = (slice.getValue() / totalValue) * (360);
-            p.arcTo(new RectF(midX - radius, midY - radius, midX + radius, midY + radius), currentAngle + padding, currentSweep - padding);
-            p.arcTo(new RectF(midX - innerRadius, midY - innerRadius, midX + innerRadius, midY + innerRadius), (currentAngle + padding) + (currentSweep - padding), -(currentSweep - padding));
+            arcBounds.set(midX - radius, midY - radius, midX + radius, midY + radius);
+            p.arcTo(arcBounds, currentAngle + padding, currentSweep - padding);
+            arcBounds.set(midX - innerRadius, midY - innerRadius, midX + innerRadius, midY + innerRadius);
+            p.arcTo(arcBounds, (currentAngle + padding) + (currentSweep - padding), -(currentSweep - padding));
             p.close();
 
-            slice.setPath(p);
-            slice.setRegion(new Region((int) (midX - radius), (int) (midY - radius), (int) (midX + radius), (int) (midY + radius)));
+            slice.getRegion().set((int) (midX - radius), (int) (midY - radius), (int) (midX + radius), (int) (midY + radius));
             canvas.drawPath(p, paint);
 
             if (indexSelected == count && listener != null) {
                 path.reset();
-                paint.setColor(Color.parseColor("#33B5E5"));
+                paint.setColor(SELECTED_COLOR);
                 paint.setAlpha(100);
 
                 if (slices.size() > 1) {
-                    path.arcTo(new RectF(midX - radius - (padding * 2), midY - radius - (padding * 2), midX + radius + (padding * 2), midY + radius + (padding * 2)), currentAngle, currentSweep + padding);
-                    path.arcTo(new RectF(midX - innerRadius + (padding * 2), midY - innerRadius + (padding * 2), midX + innerRadius - (padding * 2), midY + innerRadius - (padding * 2)), currentAngle + currentSweep + padding, -(currentSweep + padding));
+                    arcBounds.set(midX - radius - (padding * 2), midY - radius - (padding * 2), midX + radius + (padding * 2), midY + radius + (padding * 2));
+                    path.arcTo(arcBounds, currentAngle, currentSweep + padding);
+                    arcBounds.set(midX - innerRadius + (padding * 2), midY - innerRadius + (padding * 2), midX + innerRadius - (padding * 2), midY + innerRadius - (padding * 2));
+                    path.arcTo(arcBounds, currentAngle + currentSweep + padding, -(currentSweep + padding));
                     path.close();
                 } else {
                     path.addCircle(midX, midY, radius + padding, Direction.CW);
@@ -136,32 +154,28 @@ public class PieGraph extends Graph {
 
             // Increment values
             currentAngle = currentAngle + currentSweep;
-            count++;
         }
     }
 
     @Override
     public boolean onTouchEvent(MotionEvent event) {
-        Point point = new Point();
-        point.x = (int) event.getX();
-        point.y = (int) event.getY();
-
-        float size = 0;
-        for (PieSlice slice : slices) {
-            // Calculate the size of the legend
-            size = Math.max(size, textPaint.getTextSize() + keyPadding + keyOffsetLeft + textPaint.measureText(slice.getTitle()));
-        }
+        // the slices were drawn shifted right by the key, so the touch is shifted left instead
+        int x = (int) (event.getX() - (int) keyShift);
+        int y = (int) event.getY();
 
         indexSelected = -1;
-        int count = 0;
-        for (PieSlice slice : slices) {
-            Region r = new Region();
+        for (int count = 0; count < slices.size(); count++) {
+            PieSlice slice = slices.get(count);
+            if (slice.getPath() == null || slice.getRegion() == null) {
+                // not drawn yet
+                continue;
+            }
+            Region r = touchRegion;
             r.setPath(slice.getPath(), slice.getRegion());
-            if (showKey) r.translate((int) size / 2, 0);
-            if (r.contains(point.x, point.y) && event.getAction() == MotionEvent.ACTION_DOWN) {
+            if (r.contains(x, y) && event.getAction() == MotionEvent.ACTION_DOWN) {
                 indexSelected = count;
             } else if (event.getAction() == MotionEvent.ACTION_UP) {
-                if (r.contains(point.x, point.y) && listener != null) {
+                if (r.contains(x, y) && listener != null) {
                     if (indexSelected > -1) {
                         listener.onClick(indexSelected);
                     }
@@ -169,7 +183,6 @@ public class PieGraph extends Graph {
                 }
 
             }
-            count++;
         }
 
         if (event.getAction() == MotionEvent.ACTION_DOWN || event.getAction() == MotionEvent.ACTION_UP) {
@@ -227,6 +240,45 @@ public class PieGraph extends Graph {
         postInvalidate();
     }
 
+    @Override
+    void writeState(GraphState state) {
+        super.writeState(state);
+        state.putInt(thickness);
+        state.putBoolean(showKey);
+        state.putFloat(textPaint.getTextSize());
+        int count = slices.size();
+        float[] values = new float[count];
+        state.putInt(count);
+        for (int i = 0; i < count; i++) {
+            PieSlice slice = slices.get(i);
+            values[i] = slice.getValue();
+            state.putInt(slice.getColor());
+            state.putString(slice.getTitle());
+        }
+        state.putFloats(values, 0, count);
+    }
+
+    @Override
+    void readState(GraphState state) {
+        super.readState(state);
+        thickness = state.getInt();
+        showKey = state.getBoolean();
+        textPaint.setTextSize(state.getFloat());
+        int count = state.getInt();
+        ArrayList<PieSlice> restored = new ArrayList<PieSlice>(count);
+        for (int i = 0; i < count; i++) {
+            PieSlice slice = new PieSlice();
+            slice.setColor(state.getInt());
+            slice.setTitle(state.getString());
+            restored.add(slice);
+        }
+        float[] values = state.getFloats();
+        for (int i = 0; i < count; i++) {
+            restored.get(i).setValue(values[i]);
+        }
+        setSlices(restored);
+    }
+
     public static interface OnSliceClickedListener {
         public abstract void onClick(int index);
     }
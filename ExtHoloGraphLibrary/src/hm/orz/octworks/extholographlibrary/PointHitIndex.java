@@ -0,0 +1,178 @@
+package hm.orz.octworks.extholographlibrary;
+
+/**
+ * Screen-space index of the markers drawn in the last render pass. Markers are recorded while
+ * drawing and bucketed into a uniform grid whose cells are as large as the touch radius, so a
+ * touch only has to look at the 3x3 cells around it.
+ */
+class PointHitIndex {
+
+    static final int NO_HIT = -1;
+
+    private float[] xs = new float[0];
+    private float[] ys = new float[0];
+    private int[] lineIndices = new int[0];
+    private int[] pointIndices = new int[0];
+    private int size = 0;
+
+    private float cellSize = 1;
+    private int columns = 0;
+    private int rows = 0;
+    private int[] cellStarts = new int[0];
+    private int[] cellEntries = new int[0];
+
+    void clear() {
+        size = 0;
+        columns = 0;
+        rows = 0;
+    }
+
+    void add(float x, float y, int lineIndex, int pointIndex) {
+        ensureCapacity(size + 1);
+        xs[size] = x;
+        ys[size] = y;
+        lineIndices[size] = lineIndex;
+        pointIndices[size] = pointIndex;
+        size++;
+    }
+
+    /**
+     * Replaces the entries with those of {@code source}, which may be this index, moved by
+     * {@code dx} pixels along with the scrolled data layer. The point indices of line {@code l}
+     * go down by {@code evicted[l]}; entries whose point was evicted, or which moved left of
+     * {@code minX} where the layer is cleared, are dropped. As the layer only moves by whole
+     * pixels, entries up to half a pixel past {@code minX} are kept. The index must be built again.
+     */
+    void scroll(PointHitIndex source, float dx, int[] evicted, float minX) {
+        int sourceSize = source.size;
+        if (source != this) {
+            size = 0;
+            ensureCapacity(sourceSize);
+        }
+        int count = 0;
+        for (int e = 0; e < sourceSize; e++) {
+            float x = source.xs[e] + dx;
+            int lineIndex = source.lineIndices[e];
+            int pointIndex = source.pointIndices[e] - evicted[lineIndex];
+            if (pointIndex < 0 || x < minX - 0.5f) {
+                continue;
+            }
+            xs[count] = x;
+            ys[count] = source.ys[e];
+            lineIndices[count] = lineIndex;
+            pointIndices[count] = pointIndex;
+            count++;
+        }
+        size = count;
+        columns = 0;
+        rows = 0;
+    }
+
+    /**
+     * Buckets the recorded markers. Must be called once all markers of a frame have been added.
+     */
+    void build(int width, int height, float cellSize) {
+        this.cellSize = cellSize;
+        columns = Math.max(1, (int) Math.ceil(width / cellSize));
+        rows = Math.max(1, (int) Math.ceil(height / cellSize));
+
+        int cells = columns * rows;
+        if (cellStarts.length < cells + 1) {
+            cellStarts = new int[cells + 1];
+        } else {
+            for (int c = 0; c <= cells; c++) {
+                cellStarts[c] = 0;
+            }
+        }
+        if (cellEntries.length < size) {
+            cellEntries = new int[xs.length];
+        }
+
+        // counting sort of the entries by cell
+        for (int e = 0; e < size; e++) {
+            cellStarts[cellOf(xs[e], ys[e]) + 1]++;
+        }
+        for (int c = 0; c < cells; c++) {
+            cellStarts[c + 1] += cellStarts[c];
+        }
+        for (int e = 0; e < size; e++) {
+            int cell = cellOf(xs[e], ys[e]);
+            cellEntries[cellStarts[cell]++] = e;
+        }
+        // the fill pass advanced every start to the next cell's start; shift them back
+        for (int c = cells; c > 0; c--) {
+            cellStarts[c] = cellStarts[c - 1];
+        }
+        cellStarts[0] = 0;
+    }
+
+    /**
+     * Returns the entry nearest to the given position within {@code radius}, or {@link #NO_HIT}.
+     * The radius must not exceed the cell size given to {@link #build(int, int, float)}.
+     */
+    int query(float x, float y, float radius) {
+        if (columns == 0) {
+            return NO_HIT;
+        }
+
+        int column = clamp((int) (x / cellSize), columns);
+        int row = clamp((int) (y / cellSize), rows);
+        float bestDistance = radius * radius;
+        int best = NO_HIT;
+
+        for (int r = Math.max(0, row - 1); r <= Math.min(rows - 1, row + 1); r++) {
+            for (int c = Math.max(0, column - 1); c <= Math.min(columns - 1, column + 1); c++) {
+                int cell = r * columns + c;
+                for (int k = cellStarts[cell]; k < cellStarts[cell + 1]; k++) {
+                    int e = cellEntries[k];
+                    float dx = xs[e] - x;
+                    float dy = ys[e] - y;
+                    float distance = dx * dx + dy * dy;
+                    if (distance <= bestDistance) {
+                        bestDistance = distance;
+                        best = e;
+                    }
+                }
+            }
+        }
+        return best;
+    }
+
+    int getLineIndex(int entry) {
+        return lineIndices[entry];
+    }
+
+    int getPointIndex(int entry) {
+        return pointIndices[entry];
+    }
+
+    private int cellOf(float x, float y) {
+        return clamp((int) (y / cellSize), rows) * columns + clamp((int) (x / cellSize), columns);
+    }
+
+    private static int clamp(int value, int count) {
+        return value < 0 ? 0 : (value >= count ? count - 1 : value);
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > xs.length) {
+            capacity = Math.max(capacity, Math.max(16, xs.length * 2));
+            xs = grow(xs, capacity);
+            ys = grow(ys, capacity);
+            lineIndices = grow(lineIndices, capacity);
+            pointIndices = grow(pointIndices, capacity);
+        }
+    }
+
+    private float[] grow(float[] array, int capacity) {
+        float[] newArray = new float[capacity];
+        System.arraycopy(array, 0, newArray, 0, size);
+        return newArray;
+    }
+
+    private int[] grow(int[] array, int capacity) {
+        int[] newArray = new int[capacity];
+        System.arraycopy(array, 0, newArray, 0, size);
+        return newArray;
+    }
+}
@@ -0,0 +1,60 @@
+package hm.orz.octworks.extholographlibrary;
+
+import java.util.ArrayList;
+
+/**
+ * Everything a background render pass of an {@link AbstractLineGraph} reads, copied on the UI
+ * thread so that the lines and the styling can keep changing while the frame is drawn. The copies are reused
+ * from frame to frame, and immutable lines are shared instead of copied.
+ */
+class RenderSnapshot {
+
+    final ArrayList<AbstractLine> lines = new ArrayList<AbstractLine>();
+    final ArrayList<AbstractLine> sources = new ArrayList<AbstractLine>();
+    // one copy per slot, unused while the slot holds an immutable line
+    private final ArrayList<Line> copies = new ArrayList<Line>();
+
+    int width, height;
+    float minX, maxX, minY, maxY;
+    int selectedLineIndex, selectedPointIndex;
+    boolean chromeDirty;
+
+    // styling and drawing options
+    int textColor;
+    float textSize;
+    String xAxisTitle, yAxisTitle;
+    boolean showXAxisValues, showYAxisValues;
+    boolean autoXGrid, autoYGrid;
+    final AxisTicks xGrid = new AxisTicks();
+    final AxisTicks yGrid = new AxisTicks();
+    int gridColor;
+    AbstractLineGraph.LabelFormatter xLabelFormatter, yLabelFormatter;
+    int hatchColor;
+    int lineToFill;
+    boolean visibleXRangeSet;
+    float pointDensityThreshold;
+    boolean batchedLineDrawing;
+    boolean incrementalRendering;
+
+    void capture(ArrayList<AbstractLine> source) {
+        sources.clear();
+        lines.clear();
+        while (copies.size() > source.size()) {
+            copies.remove(copies.size() - 1);
+        }
+        while (copies.size() < source.size()) {
+            copies.add(new Line());
+        }
+        for (int i = 0; i < source.size(); i++) {
+            AbstractLine line = source.get(i);
+            sources.add(line);
+            if (line.isImmutable()) {
+                lines.add(line);
+            } else {
+                Line copy = copies.get(i);
+                copy.copyFrom(line);
+                lines.add(copy);
+            }
+        }
+    }
+}
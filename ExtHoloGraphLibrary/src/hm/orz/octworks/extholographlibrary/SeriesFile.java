@@ -0,0 +1,192 @@
+package hm.orz.octworks.extholographlibrary;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Binary file holding one series, written with {@link #write} and opened without parsing with
+ * {@link #open(File)}. All values are little-endian:
+ * <pre>
+ *  0  int    magic "HGSF"
+ *  4  int    version
+ *  8  int    flags, see FLAG_*
+ * 12  int    number of points
+ * 16  int    points per index block, 0 without an index
+ * 20  float  min x, max x, min y, max y (x relative to the x origin)
+ * 36  int    reserved
+ * 40  long   x origin, the first x of a long x column and 0 otherwise
+ * 48  ...    reserved up to HEADER_SIZE
+ * then the x column (float or long), the y column (float) and, when indexed, the smallest
+ * and largest y of every block of points as pairs of floats.
+ * </pre>
+ */
+public class SeriesFile {
+
+    static final int MAGIC = 0x46534748;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 64;
+
+    // the x column holds longs, e.g. timestamps, rather than floats
+    static final int FLAG_LONG_X = 1;
+    // x never decreases from one point to the next
+    static final int FLAG_SORTED = 2;
+    // a block min/max index follows the y column
+    static final int FLAG_INDEXED = 4;
+
+    static final int BLOCK_SIZE = 256;
+
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
+    private SeriesFile() {
+    }
+
+    /**
+     * Writes the points {@code x[offset + i]}, {@code y[offset + i]} for {@code i} below
+     * {@code length}, with a block min/max index of the y values when {@code indexed}.
+     */
+    public static void write(File file, float[] x, float[] y, int offset, int length, boolean indexed) throws IOException {
+        checkRange(x.length, y.length, offset, length);
+        write(file, x, null, y, offset, length, indexed);
+    }
+
+    /**
+     * Same as {@link #write(File, float[], float[], int, int, boolean)} for x values such as
+     * timestamps that do not fit in a float. They are stored as they are and read back relative
+     * to the first one, see {@link MappedLine#getXOrigin()}.
+     */
+    public static void write(File file, long[] x, float[] y, int offset, int length, boolean indexed) throws IOException {
+        checkRange(x.length, y.length, offset, length);
+        write(file, null, x, y, offset, length, indexed);
+    }
+
+    /**
+     * Maps {@code file} read-only and returns it as a line. Nothing but the header is read
+     * here; the pages holding the points are loaded as the graph touches them.
+     */
+    public static MappedLine open(File file) throws IOException {
+        RandomAccessFile input = new RandomAccessFile(file, "r");
+        try {
+            long fileSize = input.length();
+            if (fileSize < HEADER_SIZE || fileSize > Integer.MAX_VALUE) {
+                throw new IOException("Not a series file: " + file);
+            }
+            // the mapping stays valid after the channel is closed
+            MappedByteBuffer buffer = input.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, fileSize);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            if (buffer.getInt(0) != MAGIC) {
+                throw new IOException("Not a series file: " + file);
+            }
+            if (buffer.getInt(4) != VERSION) {
+                throw new IOException("Unsupported series file version " + buffer.getInt(4) + ": " + file);
+            }
+            int flags = buffer.getInt(8);
+            int count = buffer.getInt(12);
+            int blockSize = buffer.getInt(16);
+            long expectedSize = HEADER_SIZE + (long) count * ((flags & FLAG_LONG_X) != 0 ? 12 : 8);
+            if ((flags & FLAG_INDEXED) != 0) {
+                if (blockSize <= 0) {
+                    throw new IOException("Corrupt series file: " + file);
+                }
+                expectedSize += (long) ((count + blockSize - 1) / blockSize) * 8;
+            }
+            if (count < 0 || fileSize < expectedSize) {
+                throw new IOException("Truncated series file: " + file);
+            }
+            return new MappedLine(file, buffer, flags, count, blockSize);
+        } finally {
+            input.close();
+        }
+    }
+
+    private static void write(File file, float[] floatX, long[] longX, float[] y, int offset, int length, boolean indexed) throws IOException {
+        long origin = longX != null && length > 0 ? longX[offset] : 0;
+        boolean sorted = true;
+        float minX = 0, maxX = 0, minY = 0, maxY = 0;
+        for (int i = 0; i < length; i++) {
+            float xValue = longX != null ? (float) (longX[offset + i] - origin) : floatX[offset + i];
+            float yValue = y[offset + i];
+            if (i == 0) {
+                minX = maxX = xValue;
+                minY = maxY = yValue;
+                continue;
+            }
+            if (longX != null ? longX[offset + i] < longX[offset + i - 1] : floatX[offset + i] < floatX[offset + i - 1]) {
+                sorted = false;
+            }
+            if (xValue < minX) minX = xValue;
+            if (xValue > maxX) maxX = xValue;
+            if (yValue < minY) minY = yValue;
+            if (yValue > maxY) maxY = yValue;
+        }
+
+        FileOutputStream output = new FileOutputStream(file);
+        try {
+            FileChannel channel = output.getChannel();
+            ByteBuffer buffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+            int flags = (longX != null ? FLAG_LONG_X : 0) | (sorted ? FLAG_SORTED : 0) | (indexed ? FLAG_INDEXED : 0);
+            buffer.putInt(MAGIC).putInt(VERSION).putInt(flags).putInt(length).putInt(indexed ? BLOCK_SIZE : 0);
+            buffer.putFloat(minX).putFloat(maxX).putFloat(minY).putFloat(maxY);
+            buffer.putInt(0).putLong(origin);
+            while (buffer.position() < HEADER_SIZE) {
+                buffer.put((byte) 0);
+            }
+
+            for (int i = offset; i < offset + length; i++) {
+                if (buffer.remaining() < 8) {
+                    flush(channel, buffer);
+                }
+                if (longX != null) {
+                    buffer.putLong(longX[i]);
+                } else {
+                    buffer.putFloat(floatX[i]);
+                }
+            }
+            for (int i = offset; i < offset + length; i++) {
+                if (buffer.remaining() < 4) {
+                    flush(channel, buffer);
+                }
+                buffer.putFloat(y[i]);
+            }
+            if (indexed) {
+                for (int block = offset; block < offset + length; block += BLOCK_SIZE) {
+                    int end = Math.min(offset + length, block + BLOCK_SIZE);
+                    float blockMin = y[block];
+                    float blockMax = y[block];
+                    for (int i = block + 1; i < end; i++) {
+                        if (y[i] < blockMin) blockMin = y[i];
+                        if (y[i] > blockMax) blockMax = y[i];
+                    }
+                    if (buffer.remaining() < 8) {
+                        flush(channel, buffer);
+                    }
+                    buffer.putFloat(blockMin).putFloat(blockMax);
+                }
+            }
+            flush(channel, buffer);
+        } finally {
+            output.close();
+        }
+    }
+
+    private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private static void checkRange(int xLength, int yLength, int offset, int length) {
+        if (offset < 0 || length < 0 || offset + length > xLength || offset + length > yLength) {
+            throw new IndexOutOfBoundsException("Invalid range " + offset + "+" + length
+                    + ", array lengths are " + xLength + " and " + yLength);
+        }
+    }
+}
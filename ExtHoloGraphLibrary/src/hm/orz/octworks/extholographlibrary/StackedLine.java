@@ -1,15 +1,28 @@
 package hm.orz.octworks.extholographlibrary;
 
+import java.nio.FloatBuffer;
 import java.util.ArrayList;
-import java.util.Stack;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 
 public class StackedLine {
     private static final int DEFAULT_COLOR = 0xffffff;
 
-    private ArrayList<StackedLinePoint> points = new ArrayList<StackedLinePoint>();
     private ArrayList<Integer> colors = new ArrayList<Integer>();
     private boolean showPoints = true;
 
+    // the stacked values series by series: series[j][i] is the j-th value of point i, 0 when
+    // the point has fewer values
+    private float[][] series = new float[0][];
+    private int size = 0;
+    private int capacity = 0;
+    // null until a point with a label is added
+    private String[] labels = null;
+    // built by getPoints(); its points read and write through to the series
+    private ArrayList<StackedLinePoint> pointsView = null;
+    private List<StackedLinePoint> readOnlyPointsView = null;
+
 
     public Integer getColor(int indexOfLine) {
         try {
@@ -23,34 +36,246 @@ public class StackedLine {
         this.colors.add(indexOfLine, color);
     }
 
-    public ArrayList<StackedLinePoint> getPoints() {
-        return points;
+    /**
+     * Returns the points as {@link StackedLinePoint} objects, like {@link Line#getPoints()}. The
+     * list is materialized lazily and its elements write through to this line, but the list
+     * itself cannot be modified; use {@link #addPoint(StackedLinePoint)} and {@link #clear()}
+     * instead.
+     */
+    public List<StackedLinePoint> getPoints() {
+        if (pointsView == null) {
+            ArrayList<StackedLinePoint> view = new ArrayList<StackedLinePoint>(size);
+            for (int i = 0; i < size; i++) {
+                view.add(new StackedLinePoint(this, i));
+            }
+            pointsView = view;
+            readOnlyPointsView = Collections.unmodifiableList(view);
+        }
+        return readOnlyPointsView;
     }
 
-    public void setPoints(ArrayList<StackedLinePoint> points) {
-        this.points = points;
+    public void setPoints(List<StackedLinePoint> points) {
+        clear();
+        ensureCapacity(points.size());
+        for (StackedLinePoint point : points) {
+            addPoint(point);
+        }
     }
 
+    public void clear() {
+        invalidatePointsView();
+        size = 0;
+        labels = null;
+    }
+
+    /**
+     * Appends the stacked values and the label of {@code point}. They are copied, so changing
+     * the point afterwards does not change the line; use {@link #getPoint(int)} for a point
+     * that does.
+     */
     public void addPoint(StackedLinePoint point) {
-        points.add(point);
+        int count = point.getSize();
+        ensureSeries(count);
+        ensureCapacity(size + 1);
+        for (int j = 0; j < series.length; j++) {
+            series[j][size] = j < count ? point.getStackedValue(j) : 0;
+        }
+        if (point.getLabel_string() != null) {
+            ensureLabels();
+            labels[size] = point.getLabel_string();
+        }
+        size++;
+        if (pointsView != null) {
+            pointsView.add(new StackedLinePoint(this, size - 1));
+        }
+    }
+
+    /**
+     * Appends one point per row of {@code values}, every row holding the stacked values of its
+     * point. The rows are copied.
+     */
+    public void addPoints(float[][] values) {
+        int count = 0;
+        for (int i = 0; i < values.length; i++) {
+            count = Math.max(count, values[i].length);
+        }
+        ensureSeries(count);
+        ensureCapacity(size + values.length);
+        for (int i = 0; i < values.length; i++) {
+            float[] row = values[i];
+            for (int j = 0; j < series.length; j++) {
+                series[j][size + i] = j < row.length ? row[j] : 0;
+            }
+        }
+        invalidatePointsView();
+        size += values.length;
+    }
+
+    /**
+     * Appends {@code length} points whose j-th stacked value is {@code series[j][offset + i]},
+     * copying the values series by series. Every array must hold the range.
+     */
+    public void addPointsBySeries(float[][] series, int offset, int length) {
+        for (int j = 0; j < series.length; j++) {
+            if (offset < 0 || length < 0 || offset + length > series[j].length) {
+                throw new IndexOutOfBoundsException("Invalid range " + offset + "+" + length
+                        + ", length of series " + j + " is " + series[j].length);
+            }
+        }
+        ensureSeries(series.length);
+        ensureCapacity(size + length);
+        for (int j = 0; j < this.series.length; j++) {
+            if (j < series.length) {
+                System.arraycopy(series[j], offset, this.series[j], size, length);
+            } else {
+                Arrays.fill(this.series[j], size, size + length, 0);
+            }
+        }
+        invalidatePointsView();
+        size += length;
+    }
+
+    /**
+     * Appends the points remaining in the buffers of {@code series}, the j-th one holding the
+     * j-th stacked values, and advances the buffers past them. All buffers must have as many
+     * values left.
+     */
+    public void addPointsBySeries(FloatBuffer[] series) {
+        int length = series.length > 0 ? series[0].remaining() : 0;
+        for (int j = 1; j < series.length; j++) {
+            if (series[j].remaining() != length) {
+                throw new IllegalArgumentException("Series 0 has " + length
+                        + " values remaining, series " + j + " has " + series[j].remaining());
+            }
+        }
+        ensureSeries(series.length);
+        ensureCapacity(size + length);
+        for (int j = 0; j < this.series.length; j++) {
+            if (j < series.length) {
+                series[j].get(this.series[j], size, length);
+            } else {
+                Arrays.fill(this.series[j], size, size + length, 0);
+            }
+        }
+        invalidatePointsView();
+        size += length;
+    }
+
+    /**
+     * Makes the arrays of {@code series}, which must have the same length, the storage of this
+     * line without copying them; their first {@code size} entries become its points, the j-th
+     * array holding the j-th stacked values. Callers must not modify the arrays afterwards.
+     */
+    public void adoptPointsBySeries(float[][] series, int size) {
+        int length = series.length > 0 ? series[0].length : size;
+        for (int j = 1; j < series.length; j++) {
+            if (series[j].length != length) {
+                throw new IllegalArgumentException("Series 0 has " + length
+                        + " values, series " + j + " has " + series[j].length);
+            }
+        }
+        if (size < 0 || size > length) {
+            throw new IndexOutOfBoundsException("Invalid size " + size + ", array length is " + length);
+        }
+        invalidatePointsView();
+        this.series = series;
+        this.size = size;
+        capacity = length;
+        labels = null;
+    }
+
+    /**
+     * Returns the point at {@code index}, whose values write through to this line.
+     */
+    public StackedLinePoint getPoint(int index) {
+        return getPoints().get(index);
+    }
+
+    /**
+     * Returns the {@code indexOfLine}-th stacked value of the point at {@code index}.
+     */
+    public float getStackedValue(int indexOfLine, int index) {
+        checkIndex(index);
+        return series[indexOfLine][index];
     }
 
-    public StackedLinePoint getPoint(int indexOfLine) {
-        return points.get(indexOfLine);
+    public void setStackedValue(int indexOfLine, int index, float value) {
+        checkIndex(index);
+        if (indexOfLine < 0 || indexOfLine >= series.length) {
+            throw new IndexOutOfBoundsException("Invalid line " + indexOfLine + ", number of lines is " + series.length);
+        }
+        series[indexOfLine][index] = value;
+    }
+
+    public String getLabel(int index) {
+        checkIndex(index);
+        return labels == null ? null : labels[index];
+    }
+
+    public void setLabel(int index, String label) {
+        checkIndex(index);
+        if (labels == null) {
+            if (label == null) {
+                return;
+            }
+            ensureLabels();
+        }
+        labels[index] = label;
+    }
+
+    /**
+     * Returns the sum of the stacked values of the point at {@code index}.
+     */
+    public float getTotalValue(int index) {
+        checkIndex(index);
+        float totalValue = 0.0f;
+        for (int j = 0; j < series.length; j++) {
+            totalValue += series[j][index];
+        }
+        return totalValue;
     }
 
     public int getNumOfPoints() {
-        return points.size();
+        return size;
     }
 
     public int getNumOfLines() {
-        int maxStackedPoint = 0;
-        for (StackedLinePoint point : points) {
-            if (maxStackedPoint < point.getSize()) {
-                maxStackedPoint = point.getSize();
+        return series.length;
+    }
+
+    void writeState(GraphState state) {
+        state.putInts(colors);
+        state.putBoolean(showPoints);
+        state.putInt(size);
+        state.putInt(series.length);
+        for (int j = 0; j < series.length; j++) {
+            state.putFloats(series[j], 0, size);
+        }
+        state.putBoolean(labels != null);
+        if (labels != null) {
+            for (int i = 0; i < size; i++) {
+                state.putString(labels[i]);
+            }
+        }
+    }
+
+    static StackedLine readState(GraphState state) {
+        StackedLine line = new StackedLine();
+        line.colors = state.getInts();
+        line.showPoints = state.getBoolean();
+        int size = state.getInt();
+        float[][] series = new float[state.getInt()][];
+        for (int j = 0; j < series.length; j++) {
+            series[j] = state.getFloats();
+        }
+        line.adoptPointsBySeries(series, size);
+        if (state.getBoolean()) {
+            line.labels = new String[size];
+            for (int i = 0; i < size; i++) {
+                line.labels[i] = state.getString();
             }
         }
-        return maxStackedPoint;
+        return line;
     }
 
     public boolean isShowingPoints() {
@@ -61,5 +286,58 @@ public class StackedLine {
         this.showPoints = showPoints;
     }
 
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Invalid index " + index + ", size is " + size);
+        }
+    }
+
+    private void ensureSeries(int count) {
+        if (count <= series.length) {
+            return;
+        }
+        float[][] newSeries = new float[count][];
+        System.arraycopy(series, 0, newSeries, 0, series.length);
+        for (int j = series.length; j < count; j++) {
+            // the points already there have no such value
+            newSeries[j] = new float[capacity];
+        }
+        series = newSeries;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= this.capacity) {
+            return;
+        }
+        int newCapacity = Math.max(capacity, this.capacity * 2);
+        for (int j = 0; j < series.length; j++) {
+            float[] newValues = new float[newCapacity];
+            System.arraycopy(series[j], 0, newValues, 0, size);
+            series[j] = newValues;
+        }
+        if (labels != null) {
+            String[] newLabels = new String[newCapacity];
+            System.arraycopy(labels, 0, newLabels, 0, size);
+            labels = newLabels;
+        }
+        this.capacity = newCapacity;
+    }
+
+    private void invalidatePointsView() {
+        if (pointsView == null) {
+            return;
+        }
+        // Detach the old view so that points kept by callers keep their last values.
+        for (StackedLinePoint point : pointsView) {
+            point.detach();
+        }
+        pointsView = null;
+        readOnlyPointsView = null;
+    }
 
+    private void ensureLabels() {
+        if (labels == null) {
+            labels = new String[capacity];
+        }
+    }
 }
@@ -39,11 +39,12 @@ public class StackedLineGraph extends AbstractLineGraph {
 
     private StackedLine drawLine = null;
     private Paint paint = new Paint();
+    // reused for every band of every frame
+    private final Path areaPath = new Path();
     private float minY = 0, minX = 0;
     private float maxY = 0, maxX = 0;
     private boolean isRangeSet = false;
     private boolean isDomainSet = false;
-    private int lineToFill = -1;
     private OnPointClickedListener listener;
     private boolean showHorizontalGrid = false;
 
@@ -77,15 +78,6 @@ public class StackedLineGraph extends AbstractLineGraph {
         return drawLine;
     }
 
-    public void setLineToFill(int indexOfLine) {
-        this.lineToFill = indexOfLine;
-        update();
-    }
-
-    public int getLineToFill() {
-        return lineToFill;
-    }
-
     public void setRangeY(float min, float max) {
         minY = min;
         maxY = max;
@@ -97,9 +89,10 @@ public class StackedLineGraph extends AbstractLineGraph {
             return maxY;
         } else {
             float max = 0.0f;
-            for (StackedLinePoint point : drawLine.getPoints()) {
-                if (point.getTotalValue() > max) {
-                    max = point.getTotalValue();
+            for (int i = 0; i < drawLine.getNumOfPoints(); i++) {
+                float totalValue = drawLine.getTotalValue(i);
+                if (totalValue > max) {
+                    max = totalValue;
                 }
             }
             maxY = max;
@@ -112,9 +105,10 @@ public class StackedLineGraph extends AbstractLineGraph {
             return minY;
         } else {
             float min = 0.0f;
-            for (StackedLinePoint point : drawLine.getPoints()) {
-                if (point.getTotalValue() < min) {
-                    min = point.getTotalValue();
+            for (int i = 0; i < drawLine.getNumOfPoints(); i++) {
+                float totalValue = drawLine.getTotalValue(i);
+                if (totalValue < min) {
+                    min = totalValue;
                 }
             }
             minY = min;
@@ -141,6 +135,44 @@ public class StackedLineGraph extends AbstractLineGraph {
         drawStackedLineGraphArea(canvas, topPadding, bottomPadding, leftPadding, rightPadding);
     }
 
+    @Override
+    void writeState(GraphState state) {
+        super.writeState(state);
+        state.putBoolean(isRangeSet);
+        state.putFloat(minY);
+        state.putFloat(maxY);
+        state.putBoolean(showHorizontalGrid);
+        state.putBoolean(drawLine != null);
+        if (drawLine != null) {
+            drawLine.writeState(state);
+        }
+    }
+
+    @Override
+    void readState(GraphState state) {
+        super.readState(state);
+        isRangeSet = state.getBoolean();
+        minY = state.getFloat();
+        maxY = state.getFloat();
+        showHorizontalGrid = state.getBoolean();
+        removeAllLines();
+        if (state.getBoolean()) {
+            StackedLine line = StackedLine.readState(state);
+            if (line.getNumOfLines() > 0) {
+                setLine(line);
+            } else {
+                // setLine needs at least one stacked value
+                drawLine = line;
+            }
+        }
+    }
+
+    @Override
+    protected boolean supportsIncrementalRendering() {
+        // the stacked areas are redrawn as a whole
+        return false;
+    }
+
     protected void onPostDrawGraph(Canvas canvas, float topPadding, float bottomPadding, float leftPadding, float rightPadding) {
     }
 
@@ -155,18 +187,18 @@ public class StackedLineGraph extends AbstractLineGraph {
             drawStackedLines.add(new Line());
         }
 
-        for (int i = 0; i < stackedLine.getNumOfPoints(); i++) {
-            float stackedValue = 0.0f;
-            StackedLinePoint point = stackedLine.getPoint(i);
-            for (int j = 0; j < numOfLines; j++) {
-                Float value = point.getValue(j);
-                if (value != null) {
-                    stackedValue += value;
-                }
-
-                Line line = drawStackedLines.get(j);
-                line.addPoint(new LinePoint(i, stackedValue));
+        // the running sums of the series, each line copying them in bulk
+        int numOfPoints = stackedLine.getNumOfPoints();
+        float[] x = new float[numOfPoints];
+        float[] stackedValues = new float[numOfPoints];
+        for (int i = 0; i < numOfPoints; i++) {
+            x[i] = i;
+        }
+        for (int j = 0; j < numOfLines; j++) {
+            for (int i = 0; i < numOfPoints; i++) {
+                stackedValues[i] += stackedLine.getStackedValue(j, i);
             }
+            drawStackedLines.get(j).addPoints(x, stackedValues, 0, numOfPoints);
         }
 
         for (int i = 0; i < stackedLine.getNumOfLines(); i++) {
@@ -186,66 +218,75 @@ public class StackedLineGraph extends AbstractLineGraph {
             float leftPadding,
             float rightPadding) {
 
-        if (getLines().size() <= 0) {
+        if (getRenderLines().size() <= 0) {
             return;
         }
 
+        ViewportTransform transform = getViewportTransform();
+        int lineToFill = getRenderLineToFill();
+
         paint.reset();
         paint.setStyle(Paint.Style.FILL_AND_STROKE);
         paint.setAlpha(100);
 
-        Path path = new Path();
-        LinePoint p = null;
-        Line nowLine = null;
-        Line lastLine = null;
+        Path path = areaPath;
+        path.reset();
+        AbstractLine nowLine = null;
+        AbstractLine lastLine = null;
 
-        nowLine = getLines().get(0);
+        nowLine = getRenderLines().get(0);
         if (nowLine.getSize() > 0) {
             paint.setColor(nowLine.getColor());
             paint.setAlpha(100);
 
             path.moveTo(
-                    convertToRealXFromVirtualX(nowLine.getPoint(0).getX(), canvas, leftPadding, rightPadding),
-                    convertToRealYFromVirtualY(getMinY(), canvas, topPadding, bottomPadding));
+                    transform.toScreenX(nowLine.getX(0)),
+                    transform.getBottom());
             for (int j = 0; j < nowLine.getSize(); j++) {
                 path.lineTo(
-                        convertToRealXFromVirtualX(nowLine.getPoint(j).getX(), canvas, leftPadding, rightPadding),
-                        convertToRealYFromVirtualY(nowLine.getPoint(j).getY(), canvas, topPadding, bottomPadding));
+                        transform.toScreenX(nowLine.getX(j)),
+                        transform.toScreenY(nowLine.getY(j)));
             }
             path.lineTo(
-                    convertToRealXFromVirtualX(nowLine.getPoint(nowLine.getSize() - 1).getX(), canvas, leftPadding, rightPadding),
-                    convertToRealYFromVirtualY(getMinY(), canvas, topPadding, bottomPadding));
+                    transform.toScreenX(nowLine.getX(nowLine.getSize() - 1)),
+                    transform.getBottom());
             path.moveTo(
-                    convertToRealXFromVirtualX(nowLine.getPoint(0).getX(), canvas, leftPadding, rightPadding),
-                    convertToRealYFromVirtualY(getMinY(), canvas, topPadding, bottomPadding));
+                    transform.toScreenX(nowLine.getX(0)),
+                    transform.getBottom());
             canvas.drawPath(path, paint);
+            if (lineToFill == 0) {
+                canvas.drawPath(path, getHatchPaint());
+            }
         }
         lastLine = nowLine;
 
-        for (int i = 1; i < getLines().size(); i++) {
+        for (int i = 1; i < getRenderLines().size(); i++) {
             path.reset();
 
-            nowLine = getLines().get(i);
+            nowLine = getRenderLines().get(i);
             if (nowLine.getSize() > 0) {
                 paint.setColor(nowLine.getColor());
                 paint.setAlpha(100);
                 path.moveTo(
-                        convertToRealXFromVirtualX(nowLine.getPoint(0).getX(), canvas, leftPadding, rightPadding),
-                        convertToRealYFromVirtualY(nowLine.getPoint(0).getY(), canvas, topPadding, bottomPadding));
+                        transform.toScreenX(nowLine.getX(0)),
+                        transform.toScreenY(nowLine.getY(0)));
                 for (int j = 1; j < nowLine.getSize(); j++) {
                     path.lineTo(
-                            convertToRealXFromVirtualX(nowLine.getPoint(j).getX(), canvas, leftPadding, rightPadding),
-                            convertToRealYFromVirtualY(nowLine.getPoint(j).getY(), canvas, topPadding, bottomPadding));
+                            transform.toScreenX(nowLine.getX(j)),
+                            transform.toScreenY(nowLine.getY(j)));
                 }
                 for (int j = lastLine.getSize() - 1; j >= 0; j--) {
                     path.lineTo(
-                            convertToRealXFromVirtualX(lastLine.getPoint(j).getX(), canvas, leftPadding, rightPadding),
-                            convertToRealYFromVirtualY(lastLine.getPoint(j).getY(), canvas, topPadding, bottomPadding));
+                            transform.toScreenX(lastLine.getX(j)),
+                            transform.toScreenY(lastLine.getY(j)));
                 }
                 path.lineTo(
-                        convertToRealXFromVirtualX(nowLine.getPoint(0).getX(), canvas, leftPadding, rightPadding),
-                        convertToRealYFromVirtualY(nowLine.getPoint(0).getY(), canvas, leftPadding, bottomPadding));
+                        transform.toScreenX(nowLine.getX(0)),
+                        transform.toScreenY(nowLine.getY(0)));
                 canvas.drawPath(path, paint);
+                if (lineToFill == i) {
+                    canvas.drawPath(path, getHatchPaint());
+                }
             }
             lastLine = nowLine;
         }
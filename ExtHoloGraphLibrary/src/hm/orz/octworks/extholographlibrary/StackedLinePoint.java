@@ -27,43 +27,135 @@ package hm.orz.octworks.extholographlibrary;
 import android.graphics.Path;
 import android.graphics.Region;
 
-import java.util.ArrayList;
-
 public class StackedLinePoint {
 
-    private ArrayList<Float> stackedValues = new ArrayList<Float>();
+    private float[] stackedValues = new float[4];
+    private int size = 0;
 	private String label_string;
+
+	// Set while this point is an element of StackedLine#getPoints(); accessors then go to the line's series.
+	private StackedLine owner;
+	private int index;
+
 	public StackedLinePoint(float x, float y) {
 		super();
 	}
 
     public StackedLinePoint() { }
 
+	StackedLinePoint(StackedLine owner, int index) {
+		this.owner = owner;
+		this.index = index;
+	}
+
+    /**
+     * Creates a point stacking the values {@code values[offset]} to
+     * {@code values[offset + length - 1]}, copied.
+     */
+    public StackedLinePoint(float[] values, int offset, int length) {
+        stackedValues = new float[Math.max(length, 4)];
+        System.arraycopy(values, offset, stackedValues, 0, length);
+        size = length;
+    }
+
+    /**
+     * Adds a stacked value to a point that is not part of a line yet.
+     */
     public void addStackedValue(float value) {
-        stackedValues.add(value);
+        checkDetached();
+        if (size == stackedValues.length) {
+            float[] newValues = new float[Math.max(4, size * 2)];
+            System.arraycopy(stackedValues, 0, newValues, 0, size);
+            stackedValues = newValues;
+        }
+        stackedValues[size++] = value;
+    }
+
+    /**
+     * Makes {@code values} the storage of this point without copying it, every entry being one
+     * stacked value. Callers must not modify the array afterwards.
+     */
+    public void adoptStackedValues(float[] values) {
+        checkDetached();
+        stackedValues = values;
+        size = values.length;
     }
 
     public Float getValue(int index) {
-        return stackedValues.get(index);
+        return getStackedValue(index);
+    }
+
+    /**
+     * Same as {@link #getValue(int)}, without boxing.
+     */
+    public float getStackedValue(int index) {
+        if (owner != null) {
+            return owner.getStackedValue(index, this.index);
+        }
+        checkIndex(index);
+        return stackedValues[index];
+    }
+
+    public void setStackedValue(int index, float value) {
+        if (owner != null) {
+            owner.setStackedValue(index, this.index, value);
+            return;
+        }
+        checkIndex(index);
+        stackedValues[index] = value;
     }
+
     public int getSize() {
-        return stackedValues.size();
+        return owner != null ? owner.getNumOfLines() : size;
     }
 
     public float getTotalValue() {
+        if (owner != null) {
+            return owner.getTotalValue(index);
+        }
         float totalValue = 0.0f;
-        for (Float value : stackedValues) {
-            totalValue += value;
+        for (int i = 0; i < size; i++) {
+            totalValue += stackedValues[i];
         }
         return totalValue;
     }
 	
 	public String getLabel_string() {
-		return label_string;
+		return owner != null ? owner.getLabel(index) : label_string;
 	}
 
 	public void setLabel_string(String label_string) {
-		this.label_string = label_string;
+		if (owner != null) {
+			owner.setLabel(index, label_string);
+		} else {
+			this.label_string = label_string;
+		}
 	}
 
+    void detach() {
+        if (owner == null) {
+            return;
+        }
+        int count = owner.getNumOfLines();
+        stackedValues = new float[Math.max(count, 4)];
+        for (int j = 0; j < count; j++) {
+            stackedValues[j] = owner.getStackedValue(j, index);
+        }
+        size = count;
+        label_string = owner.getLabel(index);
+        owner = null;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Invalid index " + index + ", size is " + size);
+        }
+    }
+
+    private void checkDetached() {
+        if (owner != null) {
+            throw new UnsupportedOperationException("Points of a StackedLine have one value per line; use setStackedValue(int, float)");
+        }
+    }
+
 }
@@ -0,0 +1,299 @@
+package hm.orz.octworks.extholographlibrary;
+
+import java.nio.FloatBuffer;
+
+/**
+ * An append-only line backed by a fixed-capacity circular buffer, for live data.
+ * When the buffer is full, or a sample falls out of the optional x window, the oldest
+ * sample is evicted. Appending never allocates and the memory used is fixed by the capacity.
+ * <p>
+ * Bounds are maintained with monotonic queues, so a graph without a fixed x range follows the
+ * newest samples automatically.
+ */
+public class StreamingLine extends AbstractLine {
+
+    private final int capacity;
+    private final float[] xs;
+    private final float[] ys;
+
+    // sequence number of the oldest sample; sample n lives at slot n % capacity
+    private long first = 0;
+    private int size = 0;
+
+    private float window = 0;
+    // number of samples in the buffer whose x is smaller than that of the sample before
+    private int descents = 0;
+
+    private final MonotonicQueue minXQueue;
+    private final MonotonicQueue maxXQueue;
+    private final MonotonicQueue minYQueue;
+    private final MonotonicQueue maxYQueue;
+
+    public StreamingLine(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        this.capacity = capacity;
+        xs = new float[capacity];
+        ys = new float[capacity];
+        minXQueue = new MonotonicQueue(xs, true);
+        maxXQueue = new MonotonicQueue(xs, false);
+        minYQueue = new MonotonicQueue(ys, true);
+        maxYQueue = new MonotonicQueue(ys, false);
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public float getWindow() {
+        return window;
+    }
+
+    /**
+     * Keeps only the samples whose x is within {@code window} of the newest sample. Zero (the
+     * default) keeps as many samples as fit in the buffer. Samples must be appended in
+     * ascending x order for the window to apply.
+     */
+    public void setWindow(float window) {
+        this.window = window;
+        if (evictOutsideWindow()) {
+            onEdited();
+        }
+    }
+
+    public void addPoint(float x, float y) {
+        append(x, y);
+        onAppended();
+    }
+
+    /**
+     * Appends the points {@code x[i]}, {@code y[i]} of two arrays of the same length.
+     */
+    public void addPoints(float[] x, float[] y) {
+        if (x.length != y.length) {
+            throw new IllegalArgumentException("x has " + x.length + " values, y has " + y.length);
+        }
+        addPoints(x, y, 0, x.length);
+    }
+
+    /**
+     * Appends the points {@code x[offset + i]}, {@code y[offset + i]} for {@code i} below
+     * {@code length}.
+     */
+    public void addPoints(float[] x, float[] y, int offset, int length) {
+        if (offset < 0 || length < 0 || offset + length > x.length || offset + length > y.length) {
+            throw new IndexOutOfBoundsException("Invalid range " + offset + "+" + length
+                    + ", array lengths are " + x.length + " and " + y.length);
+        }
+        // samples that would be evicted by the later ones of the same batch are not copied
+        int skipped = Math.max(0, length - capacity);
+        for (int i = offset + skipped; i < offset + length; i++) {
+            append(x[i], y[i]);
+        }
+        if (length > 0) {
+            onAppended(length);
+        }
+    }
+
+    /**
+     * Appends the points remaining in {@code x} and {@code y}, which must have as many values
+     * left, and advances both buffers past them.
+     */
+    public void addPoints(FloatBuffer x, FloatBuffer y) {
+        int length = x.remaining();
+        if (y.remaining() != length) {
+            throw new IllegalArgumentException("x has " + length + " values remaining, y has " + y.remaining());
+        }
+        int skipped = Math.max(0, length - capacity);
+        x.position(x.position() + skipped);
+        y.position(y.position() + skipped);
+        for (int i = skipped; i < length; i++) {
+            append(x.get(), y.get());
+        }
+        if (length > 0) {
+            onAppended(length);
+        }
+    }
+
+    @Override
+    void writeState(GraphState state) {
+        state.putInt(STATE_STREAMING);
+        state.putInt(capacity);
+        state.putFloat(window);
+        writeStyle(state);
+        int start = (int) (first % capacity);
+        state.putFloatsWrapped(xs, start, size);
+        state.putFloatsWrapped(ys, start, size);
+    }
+
+    static StreamingLine readStreamingState(GraphState state) {
+        StreamingLine line = new StreamingLine(state.getInt());
+        line.setWindow(state.getFloat());
+        line.readStyle(state);
+        line.addPoints(state.getFloats(), state.getFloats());
+        return line;
+    }
+
+    private void append(float x, float y) {
+        if (size == capacity) {
+            evictOldest();
+        }
+
+        if (size > 0 && x < getX(size - 1)) {
+            descents++;
+        }
+
+        long sequence = first + size;
+        int slot = (int) (sequence % capacity);
+        xs[slot] = x;
+        ys[slot] = y;
+        size++;
+
+        minXQueue.push(sequence);
+        maxXQueue.push(sequence);
+        minYQueue.push(sequence);
+        maxYQueue.push(sequence);
+
+        evictOutsideWindow();
+    }
+
+    public void clear() {
+        first += size;
+        size = 0;
+        descents = 0;
+        minXQueue.clear();
+        maxXQueue.clear();
+        minYQueue.clear();
+        maxYQueue.clear();
+        onEdited();
+    }
+
+    @Override
+    public float getX(int index) {
+        return xs[slot(index)];
+    }
+
+    @Override
+    public float getY(int index) {
+        return ys[slot(index)];
+    }
+
+    @Override
+    public String getLabel(int index) {
+        slot(index);
+        return null;
+    }
+
+    @Override
+    public int getSize() {
+        return size;
+    }
+
+    @Override
+    public boolean isSortedByX() {
+        return descents == 0;
+    }
+
+    @Override
+    public float getMinX() {
+        return size == 0 ? 0 : xs[minXQueue.peekSlot()];
+    }
+
+    @Override
+    public float getMaxX() {
+        return size == 0 ? 0 : xs[maxXQueue.peekSlot()];
+    }
+
+    @Override
+    public float getMinY() {
+        return size == 0 ? 0 : ys[minYQueue.peekSlot()];
+    }
+
+    @Override
+    public float getMaxY() {
+        return size == 0 ? 0 : ys[maxYQueue.peekSlot()];
+    }
+
+    private int slot(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Invalid index " + index + ", size is " + size);
+        }
+        return (int) ((first + index) % capacity);
+    }
+
+    private void evictOldest() {
+        if (size > 1 && getX(1) < getX(0)) {
+            descents--;
+        }
+        minXQueue.evict(first);
+        maxXQueue.evict(first);
+        minYQueue.evict(first);
+        maxYQueue.evict(first);
+        first++;
+        size--;
+    }
+
+    /**
+     * @return true if any sample was evicted
+     */
+    private boolean evictOutsideWindow() {
+        if (window <= 0 || size == 0) {
+            return false;
+        }
+        float oldestAllowed = getX(size - 1) - window;
+        boolean evicted = false;
+        while (size > 1 && getX(0) < oldestAllowed) {
+            evictOldest();
+            evicted = true;
+        }
+        return evicted;
+    }
+
+    /**
+     * Sequence numbers of the samples that can still become the minimum (or maximum) of the
+     * buffer, in ascending (or descending) order of value, so that the head is the current
+     * extreme. Each sample enters and leaves at most once.
+     */
+    private class MonotonicQueue {
+        private final float[] values;
+        private final boolean min;
+        private final long[] sequences = new long[capacity];
+        private int head = 0;
+        private int count = 0;
+
+        MonotonicQueue(float[] values, boolean min) {
+            this.values = values;
+            this.min = min;
+        }
+
+        void push(long sequence) {
+            float value = values[(int) (sequence % capacity)];
+            while (count > 0) {
+                float last = values[(int) (sequences[(head + count - 1) % capacity] % capacity)];
+                if (min ? last < value : last > value) {
+                    break;
+                }
+                count--;
+            }
+            sequences[(head + count) % capacity] = sequence;
+            count++;
+        }
+
+        void evict(long sequence) {
+            if (count > 0 && sequences[head] == sequence) {
+                head = (head + 1) % capacity;
+                count--;
+            }
+        }
+
+        int peekSlot() {
+            return (int) (sequences[head] % capacity);
+        }
+
+        void clear() {
+            head = 0;
+            count = 0;
+        }
+    }
+}
@@ -0,0 +1,233 @@
+package hm.orz.octworks.extholographlibrary;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.os.Parcelable;
+import android.os.SystemClock;
+import android.util.AttributeSet;
+import android.view.MotionEvent;
+import android.view.SurfaceHolder;
+import android.view.SurfaceView;
+
+import java.io.File;
+
+/**
+ * A {@link LineGraph} drawn onto a {@link SurfaceView} by its own render loop, for data that
+ * changes faster than the UI thread should redraw. Lines, ranges, axes and grid are configured
+ * on {@link #getGraph()} as usual. The changes made until the next animation frame are copied
+ * once on the UI thread and handed to the loop, which renders at most {@link #getMaxFrameRate()}
+ * frames per second. The lines must be modified on the UI thread.
+ */
+public class SurfaceLineGraph extends SurfaceView implements SurfaceHolder.Callback {
+
+    private static final int DEFAULT_MAX_FRAME_RATE = 60;
+
+    private final LineGraph graph;
+
+    private int maxFrameRate = DEFAULT_MAX_FRAME_RATE;
+    private boolean pauseWhenIdle = true;
+    private int surfaceColor = Color.WHITE;
+
+    private final Object loopLock = new Object();
+    // guarded by loopLock
+    private boolean frameRequested = false;
+    private RenderLoop loop;
+    // the file the last saved state spilled to, replaced by the next one
+    private File spillFile;
+
+    public SurfaceLineGraph(Context context) {
+        this(context, null);
+    }
+
+    public SurfaceLineGraph(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        graph = new LineGraph(context);
+        graph.setRenderHost(new Runnable() {
+            @Override
+            public void run() {
+                requestFrame();
+            }
+        }, this);
+        getHolder().addCallback(this);
+    }
+
+    /**
+     * Returns the graph whose lines and styling are drawn on the surface.
+     */
+    public LineGraph getGraph() {
+        return graph;
+    }
+
+    public void update() {
+        graph.update();
+    }
+
+    public int getMaxFrameRate() {
+        return maxFrameRate;
+    }
+
+    /**
+     * Caps how many frames are rendered per second. Updates arriving faster are coalesced into
+     * the next frame.
+     */
+    public void setMaxFrameRate(int maxFrameRate) {
+        if (maxFrameRate <= 0) {
+            throw new IllegalArgumentException("maxFrameRate must be positive: " + maxFrameRate);
+        }
+        this.maxFrameRate = maxFrameRate;
+    }
+
+    public boolean isPauseWhenIdle() {
+        return pauseWhenIdle;
+    }
+
+    /**
+     * When enabled (the default) the render loop sleeps until the next update. Otherwise the
+     * surface is redrawn at the maximum frame rate whether or not anything changed.
+     */
+    public void setPauseWhenIdle(boolean pauseWhenIdle) {
+        this.pauseWhenIdle = pauseWhenIdle;
+        requestFrame();
+    }
+
+    public int getSurfaceColor() {
+        return surfaceColor;
+    }
+
+    /**
+     * Sets the color the surface is cleared with before each frame. Surfaces are opaque, so
+     * this replaces the view background.
+     */
+    public void setSurfaceColor(int color) {
+        surfaceColor = color;
+        requestFrame();
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        return graph.onTouchEvent(event);
+    }
+
+    @Override
+    protected Parcelable onSaveInstanceState() {
+        Parcelable state = Graph.SavedState.save(getContext(), super.onSaveInstanceState(), graph, spillFile);
+        spillFile = Graph.SavedState.spillFileOf(state);
+        return state;
+    }
+
+    @Override
+    protected void onRestoreInstanceState(Parcelable state) {
+        if (!(state instanceof Graph.SavedState)) {
+            super.onRestoreInstanceState(state);
+            return;
+        }
+        Graph.SavedState savedState = (Graph.SavedState) state;
+        super.onRestoreInstanceState(savedState.getSuperState());
+        // the graph's update() hands the restored lines over to the render loop
+        spillFile = Graph.SavedState.restore(savedState, graph);
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        // the graph is never attached, so it is laid out by hand
+        graph.layout(0, 0, w, h);
+    }
+
+    @Override
+    public void surfaceCreated(SurfaceHolder holder) {
+        loop = new RenderLoop(holder);
+        loop.start();
+        update();
+    }
+
+    @Override
+    public void surfaceChanged(SurfaceHolder holder, int format, int width, int height) {
+        requestFrame();
+    }
+
+    @Override
+    public void surfaceDestroyed(SurfaceHolder holder) {
+        // the surface must not be drawn on once this returns
+        RenderLoop stopped = loop;
+        loop = null;
+        synchronized (loopLock) {
+            stopped.running = false;
+            loopLock.notifyAll();
+        }
+        boolean interrupted = false;
+        while (stopped.isAlive()) {
+            try {
+                stopped.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        graph.releaseRenderBitmaps();
+    }
+
+    private void requestFrame() {
+        synchronized (loopLock) {
+            frameRequested = true;
+            loopLock.notifyAll();
+        }
+    }
+
+    private class RenderLoop extends Thread {
+        private final SurfaceHolder holder;
+        // guarded by loopLock
+        private boolean running = true;
+
+        RenderLoop(SurfaceHolder holder) {
+            super("SurfaceLineGraph");
+            this.holder = holder;
+        }
+
+        @Override
+        public void run() {
+            long lastFrame = 0;
+            while (true) {
+                synchronized (loopLock) {
+                    while (running && pauseWhenIdle && !frameRequested) {
+                        try {
+                            loopLock.wait();
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                    }
+                    if (!running) {
+                        return;
+                    }
+                    frameRequested = false;
+                }
+
+                // updates arriving while waiting out the frame interval end up in one snapshot
+                long wait = lastFrame + 1000 / maxFrameRate - SystemClock.uptimeMillis();
+                if (wait > 0) {
+                    try {
+                        Thread.sleep(wait);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                lastFrame = SystemClock.uptimeMillis();
+
+                graph.renderPendingSnapshot();
+                Canvas canvas = holder.lockCanvas();
+                if (canvas == null) {
+                    continue;
+                }
+                try {
+                    canvas.drawColor(surfaceColor);
+                    graph.drawLayers(canvas);
+                } finally {
+                    holder.unlockCanvasAndPost(canvas);
+                }
+            }
+        }
+    }
+}
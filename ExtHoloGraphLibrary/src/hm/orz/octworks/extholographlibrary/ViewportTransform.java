@@ -0,0 +1,112 @@
+package hm.orz.octworks.extholographlibrary;
+
+/**
+ * Maps data coordinates to pixels of the plot area and back. It is rebuilt once per frame from
+ * the padding and the graph bounds, so projecting a point is one multiply-add per axis.
+ */
+public class ViewportTransform {
+
+    private float scaleX = 1, offsetX = 0;
+    private float scaleY = -1, offsetY = 0;
+
+    private float minX, maxX, minY, maxY;
+    private float left, top, right, bottom;
+
+    /**
+     * @param width  width of the canvas in pixels
+     * @param height height of the canvas in pixels
+     */
+    public void set(float width, float height,
+                    float topPadding, float bottomPadding, float leftPadding, float rightPadding,
+                    float minX, float maxX, float minY, float maxY) {
+        this.minX = minX;
+        this.maxX = maxX;
+        this.minY = minY;
+        this.maxY = maxY;
+
+        left = leftPadding;
+        top = topPadding;
+        right = width - rightPadding;
+        bottom = height - bottomPadding;
+
+        scaleX = (right - left) / (maxX - minX);
+        offsetX = left - minX * scaleX;
+        scaleY = -(bottom - top) / (maxY - minY);
+        offsetY = bottom - minY * scaleY;
+    }
+
+    public float toScreenX(float x) {
+        return x * scaleX + offsetX;
+    }
+
+    public float toScreenY(float y) {
+        return y * scaleY + offsetY;
+    }
+
+    public float toDataX(float screenX) {
+        return (screenX - offsetX) / scaleX;
+    }
+
+    public float toDataY(float screenY) {
+        return (screenY - offsetY) / scaleY;
+    }
+
+    /**
+     * Moves the x mapping to a given offset, keeping the scale. Used to snap scrolled frames to
+     * whole pixels.
+     */
+    void setOffsetX(float offsetX) {
+        this.offsetX = offsetX;
+    }
+
+    public float getScaleX() {
+        return scaleX;
+    }
+
+    public float getOffsetX() {
+        return offsetX;
+    }
+
+    public float getScaleY() {
+        return scaleY;
+    }
+
+    public float getOffsetY() {
+        return offsetY;
+    }
+
+    public float getMinX() {
+        return minX;
+    }
+
+    public float getMaxX() {
+        return maxX;
+    }
+
+    public float getMinY() {
+        return minY;
+    }
+
+    public float getMaxY() {
+        return maxY;
+    }
+
+    /**
+     * Left edge of the plot area in pixels.
+     */
+    public float getLeft() {
+        return left;
+    }
+
+    public float getTop() {
+        return top;
+    }
+
+    public float getRight() {
+        return right;
+    }
+
+    public float getBottom() {
+        return bottom;
+    }
+}
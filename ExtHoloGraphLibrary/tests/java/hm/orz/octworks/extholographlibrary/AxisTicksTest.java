@@ -0,0 +1,50 @@
+package hm.orz.octworks.extholographlibrary;
+
+import junit.framework.TestCase;
+
+public class AxisTicksTest extends TestCase {
+
+    public void testNiceSteps() {
+        assertEquals(1, AxisTicks.niceStep(0.9875), 0);
+        assertEquals(2, AxisTicks.niceStep(1.5), 0);
+        assertEquals(5, AxisTicks.niceStep(3), 0);
+        assertEquals(10, AxisTicks.niceStep(7.4), 0);
+        assertEquals(0.01, AxisTicks.niceStep(0.01), 1e-12);
+        assertEquals(500, AxisTicks.niceStep(260), 0);
+    }
+
+    public void testRangeNotStartingAtZero() {
+        AxisTicks ticks = new AxisTicks();
+        // 10 ticks wanted over 74 units: steps of 10, the first one above 13
+        ticks.generate(13, 87, 500, 50);
+        assertTicks(ticks, 20, 30, 40, 50, 60, 70, 80);
+    }
+
+    public void testRangeAcrossZero() {
+        AxisTicks ticks = new AxisTicks();
+        ticks.generate(-3.7f, 4.2f, 400, 50);
+        assertTicks(ticks, -3, -2, -1, 0, 1, 2, 3, 4);
+    }
+
+    public void testFractionalStepsAreNotAccumulated() {
+        AxisTicks ticks = new AxisTicks();
+        ticks.generate(0.12f, 0.58f, 300, 60);
+        assertTicks(ticks, 0.2f, 0.3f, 0.4f, 0.5f);
+
+        ticks.generate(1000.5f, 1003, 250, 50);
+        assertTicks(ticks, 1000.5f, 1001, 1001.5f, 1002, 1002.5f, 1003);
+    }
+
+    public void testEmptyRange() {
+        AxisTicks ticks = new AxisTicks();
+        ticks.generate(5, 5, 500, 50);
+        assertEquals(0, ticks.getCount());
+    }
+
+    private static void assertTicks(AxisTicks ticks, float... expected) {
+        assertEquals(expected.length, ticks.getCount());
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], ticks.get(i), 0);
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package hm.orz.octworks.extholographlibrary;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.util.ArrayList;
+
+/**
+ * Times the coordinate conversions of one redraw, which look the graph bounds up once per
+ * converted point: once with the bounds rescanned on every lookup, as they were before lines
+ * kept their own, and once with the bounds the lines keep incrementally. The timings are
+ * logged; the assertions leave wide margins for timer noise.
+ */
+public class BoundsBenchmarkTest extends AndroidTestCase {
+
+    private static final String TAG = "BoundsBenchmark";
+    private static final int REPEATS = 5;
+    private static final float WIDTH = 1000, HEIGHT = 500;
+
+    // keeps the conversions from being optimized away
+    private float sink;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        // lets the JIT compile both paths before anything is timed
+        LineGraph graph = createGraph(2000);
+        for (int r = 0; r < 20; r++) {
+            redraw(graph, true);
+            redraw(graph, false);
+        }
+    }
+
+    public void testRedrawCostIsLinearInPointCount() {
+        long small = timeRedraw(createGraph(20000), false);
+        long large = timeRedraw(createGraph(80000), false);
+        Log.i(TAG, "incremental bounds: 20000 points " + small + " ns, 80000 points " + large + " ns");
+        // four times the points costs about 4x when linear, 16x when quadratic
+        assertTrue("redraw cost grew " + (float) large / small + "x", large < small * 8);
+    }
+
+    public void testIncrementalBoundsBeatRescanning() {
+        LineGraph small = createGraph(1000);
+        LineGraph large = createGraph(4000);
+        Log.i(TAG, "rescanned bounds: 1000 points " + timeRedraw(small, true)
+                + " ns, 4000 points " + timeRedraw(large, true) + " ns");
+        long rescanned = timeRedraw(large, true);
+        long incremental = timeRedraw(large, false);
+        Log.i(TAG, "4000 points: rescanned " + rescanned + " ns, incremental " + incremental + " ns");
+        assertTrue(incremental * 10 < rescanned);
+    }
+
+    private LineGraph createGraph(int numOfPoints) {
+        LineGraph graph = new LineGraph(getContext());
+        for (int j = 0; j < 2; j++) {
+            float[] x = new float[numOfPoints / 2];
+            float[] y = new float[numOfPoints / 2];
+            for (int i = 0; i < x.length; i++) {
+                x[i] = i;
+                y[i] = (float) Math.sin(i * 0.01 + j) * 100;
+            }
+            Line line = new Line();
+            line.addPoints(x, y);
+            graph.addLine(line);
+        }
+        return graph;
+    }
+
+    /**
+     * Returns the best time of {@link #REPEATS} redraws, in nanoseconds.
+     */
+    private long timeRedraw(LineGraph graph, boolean rescan) {
+        long best = Long.MAX_VALUE;
+        for (int r = 0; r < REPEATS; r++) {
+            long start = System.nanoTime();
+            redraw(graph, rescan);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best;
+    }
+
+    private void redraw(LineGraph graph, boolean rescan) {
+        ArrayList<AbstractLine> lines = graph.getLines();
+        for (int j = 0; j < lines.size(); j++) {
+            AbstractLine line = lines.get(j);
+            for (int i = 0; i < line.getSize(); i++) {
+                float minX = rescan ? scanBound(lines, true, false) : graph.getMinX();
+                float maxX = rescan ? scanBound(lines, true, true) : graph.getMaxX();
+                float minY = rescan ? scanBound(lines, false, false) : graph.getMinY();
+                float maxY = rescan ? scanBound(lines, false, true) : graph.getMaxY();
+                sink += (line.getX(i) - minX) / (maxX - minX) * WIDTH;
+                sink += HEIGHT - (line.getY(i) - minY) / (maxY - minY) * HEIGHT;
+            }
+        }
+    }
+
+    /**
+     * Scans every point of every line, as the graph bounds getters used to.
+     */
+    private static float scanBound(ArrayList<AbstractLine> lines, boolean x, boolean max) {
+        boolean first = true;
+        float bound = 0;
+        for (int j = 0; j < lines.size(); j++) {
+            AbstractLine line = lines.get(j);
+            for (int i = 0; i < line.getSize(); i++) {
+                float value = x ? line.getX(i) : line.getY(i);
+                if (first || (max ? value > bound : value < bound)) {
+                    bound = value;
+                }
+                first = false;
+            }
+        }
+        return bound;
+    }
+}
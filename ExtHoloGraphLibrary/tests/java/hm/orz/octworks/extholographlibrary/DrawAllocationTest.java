@@ -0,0 +1,161 @@
+package hm.orz.octworks.extholographlibrary;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.os.Debug;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.view.MotionEvent;
+import android.view.View;
+
+import java.util.ArrayList;
+
+/**
+ * Counts the objects allocated on this thread while laid-out graphs redraw in a steady state,
+ * re-rendering their data and chrome layers every time and handling a tap in between, and fails
+ * if there are any.
+ */
+public class DrawAllocationTest extends AndroidTestCase {
+
+    private static final int WIDTH = 480, HEIGHT = 320;
+    private static final int REDRAWS = 10;
+
+    private Bitmap bitmap;
+    private Canvas canvas;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        bitmap = Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888);
+        canvas = new Canvas(bitmap);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        bitmap.recycle();
+        super.tearDown();
+    }
+
+    public void testLineGraph() {
+        final LineGraph graph = new LineGraph(getContext());
+        for (int j = 0; j < 3; j++) {
+            Line line = new Line();
+            for (int i = 0; i < 200; i++) {
+                line.addPoint(i, (float) Math.sin(i * 0.1 + j) * 10);
+            }
+            line.setColor(Graph.DEFAULT_COLORS.get(j));
+            graph.addLine(line);
+        }
+        graph.setLineToFill(0);
+        graph.setAutoXGrid(true);
+        graph.setAutoYGrid(true);
+        graph.showXAxisValues(true);
+        graph.showYAxisValues(true);
+        assertNoAllocations(graph, new Runnable() {
+            @Override
+            public void run() {
+                graph.setGridColor(Color.GRAY);
+                graph.update();
+            }
+        });
+    }
+
+    public void testStackedLineGraph() {
+        final StackedLineGraph graph = new StackedLineGraph(getContext());
+        StackedLine line = new StackedLine();
+        float[][] series = new float[3][100];
+        for (int j = 0; j < series.length; j++) {
+            for (int i = 0; i < series[j].length; i++) {
+                series[j][i] = 1 + (i + j) % 5;
+            }
+            line.setColor(j, Graph.DEFAULT_COLORS.get(j));
+        }
+        line.addPointsBySeries(series, 0, 100);
+        graph.setLine(line);
+        graph.setLineToFill(1);
+        graph.showXAxisValues(true);
+        graph.showYAxisValues(true);
+        assertNoAllocations(graph, new Runnable() {
+            @Override
+            public void run() {
+                graph.setGridColor(Color.GRAY);
+                graph.update();
+            }
+        });
+    }
+
+    public void testBarGraph() {
+        final BarGraph graph = new BarGraph(getContext());
+        final ArrayList<Bar> bars = new ArrayList<Bar>();
+        for (int i = 0; i < 8; i++) {
+            Bar bar = new Bar();
+            bar.setColor(Graph.DEFAULT_COLORS.get(i));
+            bar.setName("Bar " + i);
+            bar.setValue(i * 3 + 1);
+            bars.add(bar);
+        }
+        graph.setBars(bars);
+        assertNoAllocations(graph, new Runnable() {
+            @Override
+            public void run() {
+                graph.setBars(bars);
+            }
+        });
+    }
+
+    public void testPieGraph() {
+        final PieGraph graph = new PieGraph(getContext());
+        for (int i = 0; i < 6; i++) {
+            PieSlice slice = new PieSlice();
+            slice.setColor(Graph.DEFAULT_COLORS.get(i));
+            slice.setTitle("Slice " + i);
+            slice.setValue(i + 1);
+            graph.addSlice(slice);
+        }
+        graph.showKey(true);
+        assertNoAllocations(graph, new Runnable() {
+            @Override
+            public void run() {
+                graph.postInvalidate();
+            }
+        });
+    }
+
+    /**
+     * Lays {@code graph} out, draws it until its caches are warm, then fails if redrawing it
+     * after {@code invalidate}, or tapping its center and redrawing it, allocates anything.
+     */
+    private void assertNoAllocations(View graph, Runnable invalidate) {
+        graph.measure(View.MeasureSpec.makeMeasureSpec(WIDTH, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(HEIGHT, View.MeasureSpec.EXACTLY));
+        graph.layout(0, 0, WIDTH, HEIGHT);
+        long now = SystemClock.uptimeMillis();
+        MotionEvent down = MotionEvent.obtain(now, now, MotionEvent.ACTION_DOWN, WIDTH / 2, HEIGHT / 2, 0);
+        MotionEvent up = MotionEvent.obtain(now, now, MotionEvent.ACTION_UP, WIDTH / 2, HEIGHT / 2, 0);
+        for (int i = 0; i < 2; i++) {
+            redraw(graph, invalidate, down, up);
+        }
+
+        Debug.startAllocCounting();
+        Debug.resetThreadAllocCount();
+        for (int i = 0; i < REDRAWS; i++) {
+            redraw(graph, invalidate, down, up);
+        }
+        int allocations = Debug.getThreadAllocCount();
+        Debug.stopAllocCounting();
+        down.recycle();
+        up.recycle();
+        assertEquals(graph.getClass().getSimpleName() + " allocated during " + REDRAWS + " redraws and taps",
+                0, allocations);
+    }
+
+    private void redraw(View graph, Runnable invalidate, MotionEvent down, MotionEvent up) {
+        invalidate.run();
+        graph.draw(canvas);
+        graph.onTouchEvent(down);
+        graph.draw(canvas);
+        graph.onTouchEvent(up);
+        graph.draw(canvas);
+    }
+}
@@ -0,0 +1,193 @@
+package hm.orz.octworks.extholographlibrary;
+
+import android.os.Parcelable;
+import android.test.AndroidTestCase;
+import android.view.View;
+
+import java.io.File;
+import java.util.ArrayList;
+
+public class GraphStateTest extends AndroidTestCase {
+
+    private final ArrayList<File> spillFiles = new ArrayList<File>();
+
+    @Override
+    protected void tearDown() throws Exception {
+        for (File file : spillFiles) {
+            file.delete();
+        }
+        super.tearDown();
+    }
+
+    public void testLineGraphRoundTrip() {
+        LineGraph graph = new LineGraph(getContext());
+        Line line = new Line();
+        line.addPoints(new float[] {0, 1, 2}, new float[] {5, -6, 7});
+        line.setLabel(1, "low");
+        line.setColor(0xff123456);
+        graph.addLine(line);
+        StreamingLine streaming = new StreamingLine(3);
+        streaming.addPoints(new float[] {0, 1, 2, 3, 4}, new float[] {1, 2, 3, 4, 5});
+        graph.addLine(streaming);
+        graph.setRangeY(-10, 10);
+        graph.setXAxisTitle("time");
+        graph.setLineToFill(1);
+
+        LineGraph restored = new LineGraph(getContext());
+        restored.readState(roundTrip(graph));
+
+        assertEquals(2, restored.getSize());
+        AbstractLine restoredLine = restored.getLine(0);
+        assertEquals(3, restoredLine.getSize());
+        assertEquals(-6, restoredLine.getY(1), 0);
+        assertEquals("low", restoredLine.getLabel(1));
+        assertEquals(0xff123456, restoredLine.getColor());
+        StreamingLine restoredStreaming = (StreamingLine) restored.getLine(1);
+        assertEquals(3, restoredStreaming.getCapacity());
+        assertEquals(3, restoredStreaming.getSize());
+        assertEquals(2, restoredStreaming.getX(0), 0);
+        assertEquals(-10, restored.getMinY(), 0);
+        assertEquals(10, restored.getMaxY(), 0);
+        assertEquals(1, restored.getLineToFill());
+    }
+
+    public void testStackedLineGraphRoundTrip() {
+        StackedLineGraph graph = new StackedLineGraph(getContext());
+        StackedLine line = new StackedLine();
+        line.addPointsBySeries(new float[][] {{1, 2, 3}, {4, 5, 6}}, 0, 3);
+        line.setColor(0, 0xffff0000);
+        line.setColor(1, 0xff00ff00);
+        graph.setLine(line);
+        graph.setRangeY(0, 20);
+
+        StackedLineGraph restored = new StackedLineGraph(getContext());
+        restored.readState(roundTrip(graph));
+
+        StackedLine restoredLine = restored.getLine();
+        assertEquals(3, restoredLine.getNumOfPoints());
+        assertEquals(2, restoredLine.getNumOfLines());
+        assertEquals(5, restoredLine.getStackedValue(1, 1), 0);
+        assertEquals(0xff00ff00, restoredLine.getColor(1).intValue());
+        assertEquals(20, restored.getMaxY(), 0);
+    }
+
+    public void testBarGraphRoundTrip() {
+        BarGraph graph = new BarGraph(getContext());
+        ArrayList<Bar> bars = new ArrayList<Bar>();
+        for (int i = 0; i < 3; i++) {
+            Bar bar = new Bar();
+            bar.setColor(Graph.DEFAULT_COLORS.get(i));
+            bar.setName("Bar " + i);
+            bar.setValue(i * 2.5f);
+            bars.add(bar);
+        }
+        graph.setBars(bars);
+        graph.setUnit("kg");
+
+        BarGraph restored = new BarGraph(getContext());
+        restored.readState(roundTrip(graph));
+
+        assertEquals(3, restored.getBars().size());
+        Bar bar = restored.getBars().get(2);
+        assertEquals("Bar 2", bar.getName());
+        assertEquals(5, bar.getValue(), 0);
+        assertEquals(Graph.DEFAULT_COLORS.get(2).intValue(), bar.getColor());
+        assertEquals("kg", restored.getUnit());
+    }
+
+    public void testPieGraphRoundTrip() {
+        PieGraph graph = new PieGraph(getContext());
+        for (int i = 0; i < 3; i++) {
+            PieSlice slice = new PieSlice();
+            slice.setColor(Graph.DEFAULT_COLORS.get(i));
+            slice.setTitle("Slice " + i);
+            slice.setValue(i + 1);
+            graph.addSlice(slice);
+        }
+        graph.setThickness(25);
+
+        PieGraph restored = new PieGraph(getContext());
+        restored.readState(roundTrip(graph));
+
+        assertEquals(3, restored.getSlices().size());
+        PieSlice slice = restored.getSlice(1);
+        assertEquals("Slice 1", slice.getTitle());
+        assertEquals(2, slice.getValue(), 0);
+        assertEquals(Graph.DEFAULT_COLORS.get(1).intValue(), slice.getColor());
+        assertEquals(25, restored.getThickness());
+    }
+
+    public void testSmallStateIsParcelled() {
+        GraphState state = stateOfSize(Graph.SavedState.MAX_PARCELLED_SIZE - 16);
+        Graph.SavedState savedState = create(state);
+
+        assertNull(savedState.getSpillFile());
+        float[] values = savedState.getGraphState().getFloats();
+        assertEquals(values.length - 1, values[values.length - 1], 0);
+    }
+
+    public void testLargeStateSpills() {
+        GraphState state = stateOfSize(Graph.SavedState.MAX_PARCELLED_SIZE + 16);
+        Graph.SavedState savedState = create(state);
+
+        File spillFile = savedState.getSpillFile();
+        assertNotNull(spillFile);
+        assertTrue(spillFile.exists());
+        GraphState restored = savedState.getGraphState();
+        assertNotNull(restored);
+        float[] values = restored.getFloats();
+        assertEquals(values.length - 1, values[values.length - 1], 0);
+    }
+
+    public void testSpillFileIsDeletedOnNextSave() {
+        LineGraph graph = new LineGraph(getContext());
+        Line line = new Line();
+        float[] x = new float[Graph.SavedState.MAX_PARCELLED_SIZE / 4];
+        line.addPoints(x, x);
+        graph.addLine(line);
+
+        Parcelable first = Graph.SavedState.save(getContext(), View.BaseSavedState.EMPTY_STATE, graph, null);
+        File firstSpill = Graph.SavedState.spillFileOf(first);
+        assertNotNull(firstSpill);
+        spillFiles.add(firstSpill);
+        Parcelable second = Graph.SavedState.save(getContext(), View.BaseSavedState.EMPTY_STATE, graph, firstSpill);
+        File secondSpill = Graph.SavedState.spillFileOf(second);
+        assertNotNull(secondSpill);
+        spillFiles.add(secondSpill);
+
+        assertFalse(firstSpill.exists());
+        assertTrue(secondSpill.exists());
+
+        LineGraph restored = new LineGraph(getContext());
+        assertEquals(secondSpill, Graph.SavedState.restore((Graph.SavedState) second, restored));
+        assertEquals(x.length, restored.getLine(0).getSize());
+    }
+
+    private static GraphState roundTrip(Graph graph) {
+        GraphState state = new GraphState();
+        graph.writeState(state);
+        return new GraphState(state.toByteArray());
+    }
+
+    private Graph.SavedState create(GraphState state) {
+        Graph.SavedState savedState = Graph.SavedState.create(getContext(), View.BaseSavedState.EMPTY_STATE, state);
+        assertNotNull(savedState);
+        if (savedState.getSpillFile() != null) {
+            spillFiles.add(savedState.getSpillFile());
+        }
+        return savedState;
+    }
+
+    /**
+     * Returns a state of about {@code bytes} bytes holding one array of ascending floats.
+     */
+    private static GraphState stateOfSize(int bytes) {
+        float[] values = new float[bytes / 4];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = i;
+        }
+        GraphState state = new GraphState();
+        state.putFloats(values, 0, values.length);
+        return state;
+    }
+}
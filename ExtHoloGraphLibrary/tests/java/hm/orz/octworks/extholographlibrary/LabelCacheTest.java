@@ -0,0 +1,57 @@
+package hm.orz.octworks.extholographlibrary;
+
+import android.graphics.Paint;
+
+import junit.framework.TestCase;
+
+public class LabelCacheTest extends TestCase {
+
+    private int formatted;
+
+    private final AbstractLineGraph.LabelFormatter formatter = new AbstractLineGraph.LabelFormatter() {
+        @Override
+        public String format(float value) {
+            formatted++;
+            return LabelCache.DEFAULT_FORMATTER.format(value);
+        }
+    };
+
+    public void testHitsAreNotFormattedAgain() {
+        LabelCache cache = new LabelCache(new Paint(), AbstractLineGraph.LABEL_CACHE_SIZE);
+        int slot = cache.lookup(2.5f, formatter);
+        assertEquals("2.5", cache.getLabel(slot));
+        assertEquals(slot, cache.lookup(2.5f, formatter));
+        assertEquals(1, formatted);
+    }
+
+    public void testLeastRecentlyUsedIsEvicted() {
+        int capacity = AbstractLineGraph.LABEL_CACHE_SIZE;
+        LabelCache cache = new LabelCache(new Paint(), capacity);
+        for (int i = 0; i < capacity; i++) {
+            cache.lookup(i, formatter);
+        }
+        // 0 becomes the most recently used, leaving 1 as the least
+        cache.lookup(0, formatter);
+        assertEquals(capacity, formatted);
+
+        int slot = cache.lookup(capacity, formatter);
+        assertEquals(Integer.toString(capacity), cache.getLabel(slot));
+        assertEquals(capacity + 1, formatted);
+
+        cache.lookup(0, formatter);
+        for (int i = 2; i < capacity; i++) {
+            cache.lookup(i, formatter);
+        }
+        assertEquals(capacity + 1, formatted);
+        cache.lookup(1, formatter);
+        assertEquals(capacity + 2, formatted);
+    }
+
+    public void testFormatterChangeClears() {
+        LabelCache cache = new LabelCache(new Paint(), AbstractLineGraph.LABEL_CACHE_SIZE);
+        cache.lookup(1, LabelCache.DEFAULT_FORMATTER);
+        int slot = cache.lookup(1, formatter);
+        assertEquals(1, formatted);
+        assertEquals("1", cache.getLabel(slot));
+    }
+}
@@ -0,0 +1,134 @@
+package hm.orz.octworks.extholographlibrary;
+
+import junit.framework.TestCase;
+
+import java.util.Random;
+
+public class LineDownsamplerTest extends TestCase {
+
+    private static final int WIDTH = 50;
+
+    public void testLttbKeepsOnePointPerBucket() {
+        Line line = createLine(1000, 1);
+        line.setY(503, 1000);
+        LineDownsampler downsampler = new LineDownsampler(line);
+        int count = downsampler.downsample(AbstractLine.DOWNSAMPLE_LTTB, WIDTH, 0, 1000, 0, 1000);
+        int[] indices = downsampler.getIndices();
+
+        assertEquals(WIDTH * 2, count);
+        assertEquals(0, indices[0]);
+        assertEquals(999, indices[count - 1]);
+        assertAscending(indices, count);
+        boolean spikeKept = false;
+        for (int k = 0; k < count; k++) {
+            spikeKept |= indices[k] == 503;
+        }
+        assertTrue(spikeKept);
+    }
+
+    public void testLttbWithinRange() {
+        Line line = createLine(1000, 2);
+        int[] indices = new int[1000];
+        int count = LineDownsampler.largestTriangleThreeBuckets(line, 200, 700, 40, indices);
+        assertEquals(40, count);
+        assertEquals(200, indices[0]);
+        assertEquals(699, indices[count - 1]);
+        assertAscending(indices, count);
+
+        // nothing to drop
+        count = LineDownsampler.largestTriangleThreeBuckets(line, 200, 230, 40, indices);
+        assertEquals(30, count);
+        for (int k = 0; k < count; k++) {
+            assertEquals(200 + k, indices[k]);
+        }
+    }
+
+    public void testMinMaxKeepsFirstMinMaxLastInIndexOrder() {
+        Line line = createLine(1000, 3);
+        LineDownsampler downsampler = new LineDownsampler(line);
+        int count = downsampler.downsample(AbstractLine.DOWNSAMPLE_MIN_MAX, WIDTH, 0, 1000, 0, 1000);
+        int[] indices = downsampler.getIndices();
+        assertAscending(indices, count);
+        assertMinMaxColumns(line, indices, count, 0, 1000);
+    }
+
+    public void testMinMaxUsesPyramidForSortedLines() {
+        Line plain = createLine(5000, 4);
+        Line indexed = createLine(5000, 4);
+        indexed.setPyramidEnabled(true);
+        assertTrue(indexed.isSortedByX());
+
+        LineDownsampler plainDownsampler = new LineDownsampler(plain);
+        LineDownsampler indexedDownsampler = new LineDownsampler(indexed);
+        for (int from = 0; from < 5000; from += 1237) {
+            int to = Math.min(5000, from + 2900);
+            int count = plainDownsampler.downsample(AbstractLine.DOWNSAMPLE_MIN_MAX, WIDTH, from, to, from, to);
+            int indexedCount = indexedDownsampler.downsample(AbstractLine.DOWNSAMPLE_MIN_MAX, WIDTH, from, to, from, to);
+            assertEquals(count, indexedCount);
+            for (int k = 0; k < count; k++) {
+                assertEquals(plainDownsampler.getIndices()[k], indexedDownsampler.getIndices()[k]);
+            }
+            assertMinMaxColumns(indexed, indexedDownsampler.getIndices(), indexedCount, from, to);
+        }
+    }
+
+    /**
+     * Random y values, distinct so that the extremes of every column are unambiguous, at x equal
+     * to the index.
+     */
+    private static Line createLine(int size, long seed) {
+        Random random = new Random(seed);
+        float[] x = new float[size];
+        float[] y = new float[size];
+        for (int i = 0; i < size; i++) {
+            x[i] = i;
+            y[i] = random.nextFloat() * 100 + i * 1e-3f;
+        }
+        Line line = new Line();
+        line.addPoints(x, y);
+        return line;
+    }
+
+    private static void assertAscending(int[] indices, int count) {
+        for (int k = 1; k < count; k++) {
+            assertTrue("index " + k + " is not ascending", indices[k] > indices[k - 1]);
+        }
+    }
+
+    /**
+     * Checks that the kept points of every pixel column are exactly its first, minimum, maximum
+     * and last point, for a line whose x equals the index and a plot spanning {@code minX} to
+     * {@code maxX}.
+     */
+    private static void assertMinMaxColumns(AbstractLine line, int[] indices, int count, int minX, int maxX) {
+        float columnsPerUnit = (float) WIDTH / (maxX - minX);
+        int k = 0;
+        int i = minX;
+        while (i < maxX) {
+            int column = (int) Math.floor((i - minX) * columnsPerUnit);
+            int first = i;
+            int min = i, max = i;
+            while (i < maxX && (int) Math.floor((i - minX) * columnsPerUnit) == column) {
+                if (line.getY(i) < line.getY(min)) {
+                    min = i;
+                }
+                if (line.getY(i) > line.getY(max)) {
+                    max = i;
+                }
+                i++;
+            }
+            int last = i - 1;
+            int[] expected = {first, Math.min(min, max), Math.max(min, max), last};
+            int previous = -1;
+            for (int e : expected) {
+                if (e == previous) {
+                    continue;
+                }
+                assertTrue("column " + column + " ends early", k < count);
+                assertEquals("column " + column, e, indices[k++]);
+                previous = e;
+            }
+        }
+        assertEquals(count, k);
+    }
+}
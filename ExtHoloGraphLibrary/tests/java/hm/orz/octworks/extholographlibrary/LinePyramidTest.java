@@ -0,0 +1,131 @@
+package hm.orz.octworks.extholographlibrary;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+
+public class LinePyramidTest extends TestCase {
+
+    public void testRangeExtremes() {
+        Line line = createLine(1000, 0);
+        line.setPyramidEnabled(true);
+        for (int from = 0; from < 1000; from += 37) {
+            for (int to = from + 1; to <= 1000; to += 53) {
+                assertEquals(scanMinY(line, from, to), line.getMinY(from, to), 0);
+                assertEquals(scanMaxY(line, from, to), line.getMaxY(from, to), 0);
+            }
+        }
+    }
+
+    public void testAppendsAreMergedIn() {
+        Line line = createLine(100, 0);
+        line.setPyramidEnabled(true);
+        assertEquals(scanMaxY(line, 0, 100), line.getMaxY(0, 100), 0);
+
+        line.addPoint(100, 500);
+        line.addPoints(new float[] {101, 102}, new float[] {-500, 0});
+        assertEquals(500, line.getMaxY(0, 103), 0);
+        assertEquals(-500, line.getMinY(50, 103), 0);
+    }
+
+    public void testEditsRebuild() {
+        Line line = createLine(100, 0);
+        line.setPyramidEnabled(true);
+        assertEquals(scanMaxY(line, 0, 100), line.getMaxY(0, 100), 0);
+
+        line.setY(40, 500);
+        assertEquals(500, line.getMaxY(0, 100), 0);
+        line.removePoint(40);
+        assertEquals(scanMaxY(line, 0, 99), line.getMaxY(0, 99), 0);
+    }
+
+    public void testCopyFollowsAppendsToItsSource() {
+        Line source = createLine(100, 0);
+        source.setPyramidEnabled(true);
+        Line copy = new Line();
+        copy.copyFrom(source);
+        assertEquals(scanMaxY(source, 0, 100), copy.getMaxY(0, 100), 0);
+
+        source.addPoint(100, 500);
+        copy.copyFrom(source);
+        assertEquals(500, copy.getMaxY(0, 101), 0);
+    }
+
+    public void testLinesSwappedWithinSnapshotSlot() {
+        // two append-only lines with the same edit count, the second one longer by exactly
+        // as many points as it has more appends
+        Line first = createLine(100, 1000);
+        first.setPyramidEnabled(true);
+        Line second = createLine(150, 0);
+        second.setPyramidEnabled(true);
+
+        RenderSnapshot snapshot = new RenderSnapshot();
+        ArrayList<AbstractLine> lines = new ArrayList<AbstractLine>();
+        lines.add(first);
+        snapshot.capture(lines);
+        assertEquals(scanMaxY(first, 0, 100), snapshot.lines.get(0).getMaxY(0, 100), 0);
+
+        lines.set(0, second);
+        snapshot.capture(lines);
+        AbstractLine copy = snapshot.lines.get(0);
+        for (int to = 1; to <= 150; to += 7) {
+            assertEquals(scanMinY(second, 0, to), copy.getMinY(0, to), 0);
+            assertEquals(scanMaxY(second, 0, to), copy.getMaxY(0, to), 0);
+        }
+    }
+
+    public void testEvictionsDoNotRebuild() {
+        StreamingLine line = new StreamingLine(200);
+        LinePyramid pyramid = new LinePyramid(line);
+        for (int i = 0; i < 200; i++) {
+            line.addPoint(i, (float) Math.sin(i * 0.37) * (i % 17));
+        }
+        pyramid.indexOfExtreme(0, 200, true);
+        int builds = pyramid.getBuildCount();
+
+        // fewer evictions than live points, checked after every batch
+        for (int i = 200; i < 380; i += 3) {
+            for (int k = i; k < i + 3; k++) {
+                line.addPoint(k, (float) Math.sin(k * 0.37) * (k % 17));
+            }
+            for (int from = 0; from < 200; from += 31) {
+                for (int to = from + 1; to <= 200; to += 47) {
+                    assertEquals(scanMinY(line, from, to), line.getY(pyramid.indexOfExtreme(from, to, true)), 0);
+                    assertEquals(scanMaxY(line, from, to), line.getY(pyramid.indexOfExtreme(from, to, false)), 0);
+                }
+            }
+        }
+        assertEquals(builds, pyramid.getBuildCount());
+
+        // once the evicted points outnumber the live ones the nodes are compacted by a rebuild
+        for (int i = 380; i < 420; i++) {
+            line.addPoint(i, 0);
+        }
+        pyramid.indexOfExtreme(0, 200, true);
+        assertEquals(builds + 1, pyramid.getBuildCount());
+    }
+
+    private static Line createLine(int size, float offset) {
+        Line line = new Line();
+        for (int i = 0; i < size; i++) {
+            line.addPoint(i, offset + (float) Math.sin(i * 0.37) * (i % 17));
+        }
+        return line;
+    }
+
+    private static float scanMinY(AbstractLine line, int from, int to) {
+        float min = line.getY(from);
+        for (int i = from + 1; i < to; i++) {
+            min = Math.min(min, line.getY(i));
+        }
+        return min;
+    }
+
+    private static float scanMaxY(AbstractLine line, int from, int to) {
+        float max = line.getY(from);
+        for (int i = from + 1; i < to; i++) {
+            max = Math.max(max, line.getY(i));
+        }
+        return max;
+    }
+}
@@ -0,0 +1,39 @@
+package hm.orz.octworks.extholographlibrary;
+
+import junit.framework.TestCase;
+
+public class LineTest extends TestCase {
+
+    public void testPointsWriteThrough() {
+        Line line = new Line();
+        line.addPoints(new float[] {0, 1}, new float[] {5, 6});
+        LinePoint point = line.getPoint(1);
+        point.setY(10);
+        assertEquals(10, line.getY(1), 0);
+        assertSame(point, line.getPoints().get(1));
+
+        line.clear();
+        assertEquals(10, point.getY(), 0);
+    }
+
+    public void testSetLabelCountsAsEdit() {
+        Line line = new Line();
+        line.addPoint(0, 0);
+        int editCount = line.getEditCount();
+        line.setLabel(0, null);
+        assertEquals(editCount, line.getEditCount());
+        line.setLabel(0, "origin");
+        assertEquals(editCount + 1, line.getEditCount());
+        assertEquals("origin", line.getLabel(0));
+    }
+
+    public void testAddedLabelIsNotAnEdit() {
+        Line line = new Line();
+        LinePoint point = new LinePoint(1, 2);
+        point.setLabel_string("first");
+        line.addPoint(point);
+        assertEquals(0, line.getEditCount());
+        assertEquals(1, line.getAppendCount());
+        assertEquals("first", line.getLabel(0));
+    }
+}
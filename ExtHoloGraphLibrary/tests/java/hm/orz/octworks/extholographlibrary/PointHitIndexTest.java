@@ -0,0 +1,87 @@
+package hm.orz.octworks.extholographlibrary;
+
+import junit.framework.TestCase;
+
+public class PointHitIndexTest extends TestCase {
+
+    private static final float CELL = 10;
+
+    public void testNearestAcrossCellBorders() {
+        PointHitIndex index = new PointHitIndex();
+        index.add(11, 5, 0, 0);
+        index.add(29, 5, 0, 1);
+        index.build(100, 100, CELL);
+
+        // both points are one cell away from the touch, on either side of it
+        assertEquals(1, index.getPointIndex(index.query(20.5f, 5, CELL)));
+        assertEquals(0, index.getPointIndex(index.query(19.5f, 5, CELL)));
+    }
+
+    public void testDiagonalNeighbourCell() {
+        PointHitIndex index = new PointHitIndex();
+        index.add(9.9f, 9.9f, 2, 7);
+        index.build(100, 100, CELL);
+
+        int hit = index.query(10.1f, 10.1f, CELL);
+        assertEquals(2, index.getLineIndex(hit));
+        assertEquals(7, index.getPointIndex(hit));
+        // in a searched cell, but beyond the radius
+        assertEquals(PointHitIndex.NO_HIT, index.query(17, 17, CELL));
+    }
+
+    public void testRadiusIsInclusive() {
+        PointHitIndex index = new PointHitIndex();
+        index.add(30, 30, 0, 0);
+        index.build(100, 100, CELL);
+
+        assertEquals(0, index.query(30, 40, CELL));
+        assertEquals(PointHitIndex.NO_HIT, index.query(30, 40.5f, CELL));
+    }
+
+    public void testPointsOutsideTheGridAreClamped() {
+        PointHitIndex index = new PointHitIndex();
+        index.add(-3, 50, 0, 0);
+        index.add(104, 50, 0, 1);
+        index.build(100, 100, CELL);
+
+        assertEquals(0, index.getPointIndex(index.query(1, 50, CELL)));
+        assertEquals(1, index.getPointIndex(index.query(99, 50, CELL)));
+    }
+
+    public void testScrollMovesAndDropsEntries() {
+        PointHitIndex index = new PointHitIndex();
+        for (int i = 0; i < 5; i++) {
+            index.add(20 + i * 20, 50, 0, i);
+            index.add(20 + i * 20, 80, 1, i);
+        }
+        index.build(200, 100, CELL);
+
+        // line 0 lost its first two points, and everything moved 30 pixels to the left
+        index.scroll(index, -30, new int[] {2, 0}, 0);
+        index.build(200, 100, CELL);
+
+        assertEquals(PointHitIndex.NO_HIT, index.query(10, 50, CELL));
+        int hit = index.query(30, 50, CELL);
+        assertEquals(0, index.getLineIndex(hit));
+        assertEquals(0, index.getPointIndex(hit));
+        // line 1 kept its indices, but its first point went past the left edge
+        assertEquals(PointHitIndex.NO_HIT, index.query(-10, 80, CELL));
+        hit = index.query(10, 80, CELL);
+        assertEquals(1, index.getLineIndex(hit));
+        assertEquals(1, index.getPointIndex(hit));
+    }
+
+    public void testScrollFromAnotherIndex() {
+        PointHitIndex front = new PointHitIndex();
+        front.add(50, 50, 0, 3);
+        front.build(100, 100, CELL);
+
+        PointHitIndex back = new PointHitIndex();
+        back.add(90, 90, 0, 9);
+        back.scroll(front, 10, new int[] {1}, 0);
+        back.build(100, 100, CELL);
+
+        assertEquals(PointHitIndex.NO_HIT, back.query(90, 90, CELL));
+        assertEquals(2, back.getPointIndex(back.query(60, 50, CELL)));
+    }
+}
@@ -0,0 +1,92 @@
+package hm.orz.octworks.extholographlibrary;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.util.ArrayList;
+
+public class RenderSnapshotTest extends TestCase {
+
+    private File file;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        file = File.createTempFile("series", ".hgsf");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        file.delete();
+        super.tearDown();
+    }
+
+    public void testMutableLinesAreCopied() {
+        Line line = new Line();
+        line.addPoints(new float[] {0, 1, 2}, new float[] {5, 6, 7});
+        ArrayList<AbstractLine> lines = new ArrayList<AbstractLine>();
+        lines.add(line);
+
+        RenderSnapshot snapshot = new RenderSnapshot();
+        snapshot.capture(lines);
+        AbstractLine copy = snapshot.lines.get(0);
+        assertNotSame(line, copy);
+        assertSame(line, snapshot.sources.get(0));
+
+        line.setY(1, 100);
+        assertEquals(6, copy.getY(1), 0);
+    }
+
+    public void testCopiesKeepModCountWhileUnchanged() {
+        Line first = new Line();
+        first.addPoints(new float[] {0, 1, 2}, new float[] {5, 6, 7});
+        Line second = new Line();
+        second.addPoints(new float[] {0, 1, 2}, new float[] {7, 6, 5});
+        ArrayList<AbstractLine> lines = new ArrayList<AbstractLine>();
+        lines.add(first);
+
+        RenderSnapshot snapshot = new RenderSnapshot();
+        snapshot.capture(lines);
+        AbstractLine copy = snapshot.lines.get(0);
+        int modCount = copy.getModCount();
+        snapshot.capture(lines);
+        assertEquals(modCount, copy.getModCount());
+
+        first.setY(1, 100);
+        snapshot.capture(lines);
+        assertTrue(copy.getModCount() != modCount);
+
+        // the same counts on another line do not describe the same data
+        modCount = copy.getModCount();
+        lines.set(0, second);
+        snapshot.capture(lines);
+        assertTrue(copy.getModCount() != modCount);
+    }
+
+    public void testImmutableLinesAreShared() throws Exception {
+        float[] x = new float[1000];
+        float[] y = new float[1000];
+        for (int i = 0; i < x.length; i++) {
+            x[i] = i;
+            y[i] = i % 10;
+        }
+        SeriesFile.write(file, x, y, 0, x.length, true);
+        MappedLine mapped = SeriesFile.open(file);
+        Line line = new Line();
+        line.addPoint(0, 0);
+        ArrayList<AbstractLine> lines = new ArrayList<AbstractLine>();
+        lines.add(mapped);
+        lines.add(line);
+
+        RenderSnapshot snapshot = new RenderSnapshot();
+        snapshot.capture(lines);
+        assertSame(mapped, snapshot.lines.get(0));
+        assertNotSame(line, snapshot.lines.get(1));
+
+        // the slot goes back to a copy once it holds a mutable line
+        lines.set(0, line);
+        snapshot.capture(lines);
+        assertNotSame(line, snapshot.lines.get(0));
+        assertEquals(1, snapshot.lines.get(0).getSize());
+    }
+}
@@ -0,0 +1,76 @@
+package hm.orz.octworks.extholographlibrary;
+
+import junit.framework.TestCase;
+
+import java.nio.FloatBuffer;
+
+public class StackedLineTest extends TestCase {
+
+    public void testSeriesMatchRows() {
+        StackedLine byRows = new StackedLine();
+        byRows.addPoints(new float[][] {{1, 0, 2}, {2, 3, 2}, {4, 0, 4}});
+        StackedLine bySeries = new StackedLine();
+        bySeries.addPointsBySeries(new float[][] {{9, 1, 2, 4}, {9, 0, 3, 0}, {9, 2, 2, 4}}, 1, 3);
+
+        assertEquals(3, bySeries.getNumOfPoints());
+        assertEquals(3, bySeries.getNumOfLines());
+        for (int i = 0; i < 3; i++) {
+            for (int j = 0; j < 3; j++) {
+                assertEquals(byRows.getStackedValue(j, i), bySeries.getStackedValue(j, i), 0);
+            }
+            assertEquals(byRows.getTotalValue(i), bySeries.getTotalValue(i), 0);
+        }
+    }
+
+    public void testShorterPointsStackZeros() {
+        StackedLine line = new StackedLine();
+        StackedLinePoint point = new StackedLinePoint();
+        point.addStackedValue(5);
+        line.addPoint(point);
+        line.addPointsBySeries(new FloatBuffer[] {
+                FloatBuffer.wrap(new float[] {1, 2}),
+                FloatBuffer.wrap(new float[] {3, 4})});
+
+        assertEquals(3, line.getNumOfPoints());
+        assertEquals(2, line.getNumOfLines());
+        assertEquals(0, line.getStackedValue(1, 0), 0);
+        assertEquals(4, line.getStackedValue(1, 2), 0);
+        assertEquals(2, line.getPoint(0).getSize());
+    }
+
+    public void testAddedPointIsCopied() {
+        StackedLine line = new StackedLine();
+        StackedLinePoint point = new StackedLinePoint();
+        point.addStackedValue(1);
+        line.addPoint(point);
+        point.addStackedValue(2);
+        assertEquals(1, line.getNumOfLines());
+        assertEquals(1, line.getTotalValue(0), 0);
+    }
+
+    public void testPointsWriteThrough() {
+        StackedLine line = new StackedLine();
+        line.addPointsBySeries(new float[][] {{1, 2}, {3, 4}}, 0, 2);
+        StackedLinePoint point = line.getPoint(1);
+        point.setStackedValue(0, 10);
+        point.setLabel_string("second");
+        assertEquals(10, line.getStackedValue(0, 1), 0);
+        assertEquals("second", line.getLabel(1));
+        assertSame(point, line.getPoints().get(1));
+
+        line.setStackedValue(1, 1, 20);
+        assertEquals(30, point.getTotalValue(), 0);
+        assertEquals(2, point.getSize());
+    }
+
+    public void testPointsKeepTheirValuesOnClear() {
+        StackedLine line = new StackedLine();
+        line.addPointsBySeries(new float[][] {{1, 2}, {3, 4}}, 0, 2);
+        StackedLinePoint point = line.getPoint(0);
+        line.clear();
+        assertEquals(4, point.getTotalValue(), 0);
+        point.setStackedValue(1, 5);
+        assertEquals(6, point.getTotalValue(), 0);
+        assertEquals(0, line.getNumOfPoints());
+    }
+}
@@ -0,0 +1,92 @@
+package hm.orz.octworks.extholographlibrary;
+
+import junit.framework.TestCase;
+
+public class StreamingLineTest extends TestCase {
+
+    public void testOldestSamplesAreEvicted() {
+        StreamingLine line = new StreamingLine(4);
+        for (int i = 0; i < 10; i++) {
+            line.addPoint(i, i);
+        }
+        assertEquals(4, line.getSize());
+        assertEquals(6, line.getX(0), 0);
+        assertEquals(9, line.getX(3), 0);
+        assertEquals(10, line.getAppendCount());
+    }
+
+    public void testBoundsFollowEvictions() {
+        StreamingLine line = new StreamingLine(3);
+        float[] y = {5, -2, 8, 1, 0, 3, 9, -7, 2};
+        for (int i = 0; i < y.length; i++) {
+            line.addPoint(i, y[i]);
+            int from = Math.max(0, i - 2);
+            float min = y[from], max = y[from];
+            for (int j = from + 1; j <= i; j++) {
+                min = Math.min(min, y[j]);
+                max = Math.max(max, y[j]);
+            }
+            assertEquals(min, line.getMinY(), 0);
+            assertEquals(max, line.getMaxY(), 0);
+            assertEquals(from, line.getMinX(), 0);
+            assertEquals(i, line.getMaxX(), 0);
+        }
+    }
+
+    public void testWindow() {
+        StreamingLine line = new StreamingLine(100);
+        line.setWindow(5);
+        for (int i = 0; i < 20; i++) {
+            line.addPoint(i, 0);
+        }
+        assertEquals(14, line.getMinX(), 0);
+        assertEquals(6, line.getSize());
+    }
+
+    public void testShrinkingWindowCountsAsEdit() {
+        StreamingLine line = new StreamingLine(100);
+        float[] y = {9, -3, 4, 7, 1, 2, 0, 5};
+        for (int i = 0; i < y.length; i++) {
+            line.addPoint(i, y[i]);
+        }
+        int modCount = line.getModCount();
+        int editCount = line.getEditCount();
+        line.setWindow(100);
+        assertEquals(modCount, line.getModCount());
+
+        line.setWindow(3);
+        assertEquals(4, line.getSize());
+        assertEquals(editCount + 1, line.getEditCount());
+        assertTrue(line.getModCount() != modCount);
+        assertEquals(4, line.getMinX(), 0);
+        assertEquals(7, line.getMaxX(), 0);
+        assertEquals(0, line.getMinY(), 0);
+        assertEquals(5, line.getMaxY(), 0);
+    }
+
+    public void testBulkAppendSkipsEvictedSamples() {
+        StreamingLine line = new StreamingLine(3);
+        line.addPoints(new float[] {0, 1, 2, 3, 4}, new float[] {100, 1, 2, 3, 4});
+        assertEquals(3, line.getSize());
+        assertEquals(2, line.getX(0), 0);
+        assertEquals(4, line.getMaxY(), 0);
+        assertEquals(5, line.getAppendCount());
+    }
+
+    public void testStateKeepsWrappedSamplesInOrder() {
+        StreamingLine line = new StreamingLine(4);
+        for (int i = 0; i < 6; i++) {
+            line.addPoint(i, i * 10);
+        }
+        GraphState state = new GraphState();
+        line.writeState(state);
+        AbstractLine restored = AbstractLine.readState(new GraphState(state.toByteArray()));
+
+        assertTrue(restored instanceof StreamingLine);
+        assertEquals(4, restored.getSize());
+        for (int i = 0; i < 4; i++) {
+            assertEquals(i + 2, restored.getX(i), 0);
+            assertEquals((i + 2) * 10, restored.getY(i), 0);
+        }
+    }
+}